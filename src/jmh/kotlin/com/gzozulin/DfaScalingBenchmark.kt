@@ -0,0 +1,92 @@
+package com.gzozulin
+
+import com.gzozulin.kotlin.KotlinLexer
+import com.gzozulin.kotlin.KotlinParser
+import org.antlr.v4.runtime.CharStreams
+import org.antlr.v4.runtime.CommonTokenStream
+import org.antlr.v4.runtime.atn.LexerATNSimulator
+import org.antlr.v4.runtime.atn.ParserATNSimulator
+import org.antlr.v4.runtime.atn.PredictionContextCache
+import org.antlr.v4.runtime.atn.PredictionMode
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+private const val PARSES_PER_INVOCATION = 32
+
+// Smaller source files of the project - the big one alone takes most of a second to parse with cold tables
+private val fixtures = listOf("DiskCache.kt.txt", "FileWatcher.kt.txt", "DfaSnapshot.kt.txt", "WorkerDfa.kt.txt")
+
+/*
+    The same amount of Kotlin files is parsed by a different number of threads, starting with empty prediction tables -
+    that is when the threads are competing for them. Tables are either shared by all of the threads, as ANTLR does
+    by default, or each of the threads fills its own and they are merged in the end.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+open class DfaScalingBenchmark {
+    @Param("1", "2", "4", "8", "16", "32")
+    @JvmField var threads = 0
+
+    @Param("SHARED", "PER_WORKER")
+    @JvmField var mode = ""
+
+    private lateinit var sources: List<String>
+    private lateinit var executor: ExecutorService
+
+    @Setup
+    fun setup() {
+        sources = fixtures.map { DfaScalingBenchmark::class.java.getResource("/fixtures/$it").readText() }
+        executor = Executors.newFixedThreadPool(threads)
+    }
+
+    @TearDown
+    fun tearDown() {
+        executor.shutdown()
+    }
+
+    @Benchmark
+    fun parseCold(): Int {
+        val lexerDfa = DfaSet(KotlinLexer._ATN, KotlinLexer._serializedATN, emptyDecisions(KotlinLexer._ATN), true)
+        val parserDfa = DfaSet(KotlinParser._ATN, KotlinParser._serializedATN, emptyDecisions(KotlinParser._ATN), false)
+        val lexerContexts = PredictionContextCache()
+        val parserContexts = PredictionContextCache()
+        val workerLexerDfa = WorkerDfa(lexerDfa)
+        val workerParserDfa = WorkerDfa(parserDfa)
+        val tasks = List(threads) { thread ->
+            Callable {
+                var tokens = 0
+                for (i in thread until PARSES_PER_INVOCATION step threads) {
+                    val lexer = KotlinLexer(CharStreams.fromString(sources[i % sources.size]))
+                    val parser = KotlinParser(CommonTokenStream(lexer))
+                    if (mode == "PER_WORKER") {
+                        lexer.interpreter = LexerATNSimulator(lexer, lexer.atn,
+                            workerLexerDfa.decisions(), workerLexerDfa.contextCache())
+                        parser.interpreter = ParserATNSimulator(parser, parser.atn,
+                            workerParserDfa.decisions(), workerParserDfa.contextCache())
+                    } else {
+                        lexer.interpreter = LexerATNSimulator(lexer, lexer.atn, lexerDfa.decisions, lexerContexts)
+                        parser.interpreter = ParserATNSimulator(parser, parser.atn, parserDfa.decisions, parserContexts)
+                    }
+                    // Same as the first stage of parseKotlin - all of the fixtures are fine with SLL
+                    parser.interpreter.predictionMode = PredictionMode.SLL
+                    parser.removeErrorListeners()
+                    tokens += parser.kotlinFile().stop.tokenIndex
+                }
+                tokens
+            }
+        }
+        val result = executor.invokeAll(tasks).sumBy { it.get() }
+        if (mode == "PER_WORKER") {
+            workerLexerDfa.merge()
+            workerParserDfa.merge()
+        }
+        return result
+    }
+}
@@ -0,0 +1,55 @@
+package com.gzozulin
+
+import com.gzozulin.kotlin.KotlinLexer
+import com.gzozulin.kotlin.KotlinParser
+import kotlinx.coroutines.runBlocking
+import org.antlr.v4.runtime.CharStreams
+import org.antlr.v4.runtime.CommonTokenStream
+import org.antlr.v4.runtime.Token
+import org.openjdk.jmh.annotations.*
+import java.io.File
+import java.util.concurrent.TimeUnit
+
+/*
+    Everything that happens to an include after its file is parsed: the declaration is looked up in the index,
+    its boundaries are found and the tokens are split into comments and code.
+    The identifiers are a class, a long function with comments and a short one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class ExtractionBenchmark {
+    @Param("ParserCache", "includeDecl", "parseLocation")
+    @JvmField var identifier = ""
+
+    private lateinit var declarations: KotlinDeclarations
+    private lateinit var location: Location
+    private lateinit var declaration: Declaration
+    private lateinit var tokens: List<Token>
+
+    @Setup
+    fun setup() {
+        val code = ExtractionBenchmark::class.java.getResource("/fixtures/LemV2App.kt.txt").readText()
+        declarations = parseKotlin(KotlinParser(CommonTokenStream(KotlinLexer(CharStreams.fromString(code)))))
+        location = Location(File("."), File("LemV2App.kt"), identifier, "")
+        declaration = locateKotlin(declarations, location)
+        tokens = declarations.tokens.subList(findFirstToken(declarations.tokens, declaration),
+            findLastToken(declarations.tokens, declaration) + 1)
+    }
+
+    @Benchmark
+    fun locateKotlin(): Any = locateKotlin(declarations, location)
+
+    @Benchmark
+    fun findFirstToken(): Any = findFirstToken(declarations.tokens, declaration)
+
+    @Benchmark
+    fun findLastToken(): Any = findLastToken(declarations.tokens, declaration)
+
+    // Nothing is suspending with the default extraction mode, runBlocking only adds its own small overhead
+    @Benchmark
+    fun extractStatements(): Any = runBlocking { extractStatements(location, tokens) }
+}
@@ -0,0 +1,47 @@
+package com.gzozulin
+
+import com.gzozulin.kotlin.KotlinLexer
+import com.gzozulin.kotlin.KotlinParser
+import org.antlr.v4.runtime.CharStreams
+import org.antlr.v4.runtime.CommonTokenStream
+import org.antlr.v4.runtime.atn.LexerATNSimulator
+import org.antlr.v4.runtime.atn.ParserATNSimulator
+import org.antlr.v4.runtime.atn.PredictionContextCache
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/*
+    The fixture is parsed the same way as the included files: SLL first, LL when it fails.
+    The cold parse starts with empty prediction tables - that is what the first file of the run costs.
+    The warm one is using the shared tables, filled by the warmup.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+open class ParsingBenchmark {
+    private lateinit var code: String
+
+    @Setup
+    fun setup() {
+        code = ParsingBenchmark::class.java.getResource("/fixtures/LemV2App.kt.txt").readText()
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    fun coldParse(): Any {
+        val lexer = KotlinLexer(CharStreams.fromString(code))
+        val parser = KotlinParser(CommonTokenStream(lexer))
+        lexer.interpreter = LexerATNSimulator(lexer, lexer.atn, emptyDecisions(lexer.atn), PredictionContextCache())
+        parser.interpreter = ParserATNSimulator(parser, parser.atn, emptyDecisions(parser.atn), PredictionContextCache())
+        return parseKotlin(parser)
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    fun warmParse(): Any =
+        parseKotlin(KotlinParser(CommonTokenStream(KotlinLexer(CharStreams.fromString(code)))))
+}
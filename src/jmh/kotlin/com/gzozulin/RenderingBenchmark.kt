@@ -0,0 +1,78 @@
+package com.gzozulin
+
+import kotlinx.coroutines.runBlocking
+import org.openjdk.jmh.annotations.*
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.TimeUnit
+
+private const val MARKDOWN_FIXTURE = """##### [LemV2App.kt::renderHtml](https://github.com/gzozulin/lemV2/blob/master/LemV2App.kt#L1)
+When we have a final markdown, it can be rendered to *html* in parallel manner:
+```kotlin
+private fun renderHtml(markdown: SnippetMarkdown) =
+    SnippetHtml(flexmarkRenderer.render(flexmarkParser.parse(markdown.markdown)))
+```"""
+
+/*
+    A single snippet through flexmark, and the whole scenario from the file to the article.
+    The scenario is the lem_v2 article over a copy of the fixture source. The cached variant renders it again with
+    the parsed file, the includes and the html all cached - as in the watch mode. The cold one forgets all of the caches
+    before each invocation, so the file is parsed, the includes extracted, the html rendered and the article written.
+    Only the prediction tables of ANTLR stay warm: the cold parse of them is measured by ParsingBenchmark.
+    Caches are kept in the temporary folder, away from the ones of the usual runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class RenderingBenchmark {
+    private val markdown = SnippetMarkdown(MARKDOWN_FIXTURE)
+
+    lateinit var folder: File
+    lateinit var cache: File
+    lateinit var scenario: File
+    lateinit var output: File
+
+    @Setup
+    fun setup() {
+        folder = Files.createTempDirectory("lem").toFile()
+        cache = File(folder, "cache")
+        System.setProperty(CACHE_FOLDER_PROPERTY, cache.path)
+        val source = File(folder, "src/main/kotlin/com/gzozulin/LemV2App.kt")
+        source.parentFile.mkdirs()
+        source.writeText(RenderingBenchmark::class.java.getResource("/fixtures/LemV2App.kt.txt").readText())
+        // The first line of the scenario is the root of the sources
+        val lines = RenderingBenchmark::class.java.getResource("/fixtures/1_lem_v2").readText().lines()
+        scenario = File(folder, "1_lem_v2")
+        scenario.writeText((listOf(folder.absolutePath) + lines.drop(1)).joinToString(separator = "\n"))
+        output = File(folder, "1_lem_v2.html")
+    }
+
+    @TearDown
+    fun tearDown() {
+        folder.deleteRecursively()
+    }
+
+    @State(Scope.Benchmark)
+    open class ColdCaches {
+        @Setup(Level.Invocation)
+        fun forget(benchmark: RenderingBenchmark) {
+            forgetMemoryCaches()
+            benchmark.cache.deleteRecursively()
+            benchmark.output.delete()
+        }
+    }
+
+    @Benchmark
+    fun renderHtml(): Any = renderHtml(markdown)
+
+    @Benchmark
+    fun renderScenarioCached() = runBlocking { renderScenario(scenario, output) }
+
+    // The parameter is only there for JMH to run the per-invocation setup of the cold caches
+    @Suppress("UNUSED_PARAMETER")
+    @Benchmark
+    fun renderScenarioCold(cold: ColdCaches) = runBlocking { renderScenario(scenario, output) }
+}
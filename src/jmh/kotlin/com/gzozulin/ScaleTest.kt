@@ -0,0 +1,50 @@
+package com.gzozulin
+
+import java.io.File
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryType
+import kotlin.system.measureTimeMillis
+
+private const val BYTES_IN_MEGABYTE = 1024.0 * 1024.0
+
+/*
+    Generates a synthetic corpus and renders all of it twice: first with the cold caches, then with the warm ones.
+    Usage: gradlew scaleTest -Pargs="--files=10000 --scenarios=1000 --declarations=20 --depth=3 --comments=0.3
+        --paragraphs=100 --includes=0.2 --seed=42 --folder=build/corpus"
+ */
+fun main(args: Array<String>) {
+    fun option(name: String) = args.firstOrNull { it.startsWith("--$name=") }?.substringAfter("=")
+    val defaults = CorpusOptions()
+    val options = CorpusOptions(
+        files = option("files")?.toInt() ?: defaults.files,
+        declarations = option("declarations")?.toInt() ?: defaults.declarations,
+        depth = option("depth")?.toInt() ?: defaults.depth,
+        commentDensity = option("comments")?.toDouble() ?: defaults.commentDensity,
+        scenarios = option("scenarios")?.toInt() ?: defaults.scenarios,
+        paragraphs = option("paragraphs")?.toInt() ?: defaults.paragraphs,
+        includeDensity = option("includes")?.toDouble() ?: defaults.includeDensity,
+        seed = option("seed")?.toLong() ?: defaults.seed)
+    val folder = File(option("folder") ?: "build/corpus").absoluteFile
+    folder.deleteRecursively()
+    System.setProperty(CACHE_FOLDER_PROPERTY, File(folder, "cache").path)
+    val corpus = SyntheticCorpus(folder, options)
+    val generation = measureTimeMillis { corpus.generate() }
+    println("Generated ${options.files} files and ${options.scenarios} scenarios with ${corpus.includes} includes " +
+            "in $generation ms: $options")
+    scalePass("Cold", corpus)
+    scalePass("Warm", corpus)
+    reportStats()
+}
+
+private fun scalePass(name: String, corpus: SyntheticCorpus) {
+    val heap = ManagementFactory.getMemoryPoolMXBeans().filter { it.type == MemoryType.HEAP }
+    heap.forEach { it.resetPeakUsage() }
+    val millis = measureTimeMillis {
+        renderScenarios(corpus.scenarios, force = true, input = corpus.scenariosFolder, output = corpus.outputFolder)
+    }
+    val seconds = millis / 1000.0
+    val outputBytes = corpus.outputFolder.listFiles()!!.sumByDouble { it.length().toDouble() }
+    println("%s: %d ms, %.0f includes/s, %.2f MB/s of sources, output %.1f MB, peak heap %.0f MB".format(
+        name, millis, corpus.includes / seconds, corpus.sourceBytes / BYTES_IN_MEGABYTE / seconds,
+        outputBytes / BYTES_IN_MEGABYTE, heap.sumByDouble { it.peakUsage.used.toDouble() } / BYTES_IN_MEGABYTE))
+}
@@ -0,0 +1,57 @@
+package com.gzozulin
+
+import com.gzozulin.kotlin.KotlinLexer
+import com.gzozulin.kotlin.KotlinParser
+import com.gzozulin.statements.StatementsLexer
+import com.gzozulin.statements.StatementsParser
+import com.gzozulin.statements.baseline.BaselineStatementsLexer
+import com.gzozulin.statements.baseline.BaselineStatementsParser
+import org.antlr.v4.runtime.CharStreams
+import org.antlr.v4.runtime.CommonTokenStream
+import org.antlr.v4.runtime.ParserRuleContext
+import org.openjdk.jmh.annotations.*
+import java.io.File
+import java.util.concurrent.TimeUnit
+
+private const val WHOLE_FILE = "file"
+
+/*
+    The path behind extractStatements with the Statements grammar: a piece of code is lexed and parsed into comments
+    and code. The baseline is the grammar as it was before - with a separate token for every character of the code.
+    The code is what an include hands over: the definition of a function with a long comment and of a short one.
+    The whole fixture is there too - a copy of a real source file, roughly 400 lines of Kotlin.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class StatementsBenchmark {
+    @Param("includeDecl", "parseLocation", WHOLE_FILE)
+    @JvmField var identifier = ""
+
+    private lateinit var code: String
+
+    @Setup
+    fun setup() {
+        val source = StatementsBenchmark::class.java.getResource("/fixtures/LemV2App.kt.txt").readText()
+        code = if (identifier == WHOLE_FILE) source else definitionText(source)
+    }
+
+    // Same tokens as the ones of @include def
+    private fun definitionText(source: String): String {
+        val declarations = parseKotlin(KotlinParser(CommonTokenStream(KotlinLexer(CharStreams.fromString(source)))))
+        val declaration = locateKotlin(declarations, Location(File("."), File("LemV2App.kt"), identifier, ""))
+        return declarations.tokens.subList(findFirstToken(declarations.tokens, declaration), declaration.stop + 1)
+            .joinToString(separator = "") { it.text }
+    }
+
+    @Benchmark
+    fun splitStatements(): ParserRuleContext =
+        StatementsParser(CommonTokenStream(StatementsLexer(CharStreams.fromString(code)))).statements()
+
+    @Benchmark
+    fun splitStatementsBaseline(): ParserRuleContext =
+        BaselineStatementsParser(CommonTokenStream(BaselineStatementsLexer(CharStreams.fromString(code)))).statements()
+}
@@ -0,0 +1,159 @@
+package com.gzozulin
+
+import java.io.File
+import java.util.*
+
+private const val SYNTHETIC_PACKAGE = "com.synthetic"
+private const val SYNTHETIC_URL = "https://github.com/synthetic/corpus/blob/master"
+private const val PACKAGE_FANOUT = 8
+
+private val words = ("actor component system render parse scene buffer vertex shader texture matrix vector " +
+        "entity repository partition frame cycle signal bus queue token stream index cache budget snippet " +
+        "article command include location declaration statement comment markdown layout pixel camera light")
+    .split(" ")
+
+// The same options and the seed are always producing the same corpus
+internal data class CorpusOptions(
+    val files: Int = 10_000,
+    val declarations: Int = 20,         // per file - this is what makes the files larger or smaller
+    val depth: Int = 3,                 // of the packages under com.synthetic
+    val commentDensity: Double = 0.3,   // chance of a comment before a declaration or a statement
+    val scenarios: Int = 1_000,
+    val paragraphs: Int = 100,          // per scenario
+    val includeDensity: Double = 0.2,   // chance of an include after a paragraph
+    val seed: Long = 42)
+
+private class SyntheticFile(val location: String, val declarations: List<Pair<String, String>>)
+
+/*
+    A source tree with Kotlin files and a set of scenarios including the declarations from them.
+    Files are written under the usual src/main/kotlin, so the includes are looking exactly like the real ones.
+ */
+internal class SyntheticCorpus(val root: File, private val options: CorpusOptions) {
+    val scenariosFolder = File(root, "scenarios")
+    val outputFolder = File(root, "output")
+    val scenarios = mutableListOf<String>()
+
+    var includes = 0
+        private set
+    var sourceBytes = 0L
+        private set
+
+    private val random = Random(options.seed)
+
+    fun generate() {
+        val files = List(options.files) { generateFile(it) }
+        scenariosFolder.mkdirs()
+        val included = mutableSetOf<SyntheticFile>()
+        for (index in 0 until options.scenarios) {
+            val name = "synthetic_$index"
+            File(scenariosFolder, name).writeText(generateScenario(index, files, included))
+            scenarios.add(name)
+        }
+        sourceBytes = included.sumByDouble { sourceFile(it.location).length().toDouble() }.toLong()
+    }
+
+    private fun sourceFile(location: String) =
+        File(root, "src/main/kotlin/${location.replace(".", "/")}.kt")
+
+    private fun generateFile(index: Int): SyntheticFile {
+        val packages = List(options.depth) { "p${random.nextInt(PACKAGE_FANOUT)}" }
+        val pkg = (listOf(SYNTHETIC_PACKAGE) + packages).joinToString(separator = ".")
+        val name = "File$index"
+        val code = StringBuilder("package $pkg\n\n")
+        val declarations = mutableListOf<Pair<String, String>>()
+        var counter = 0
+        repeat(options.declarations) {
+            code.append("\n")
+            when (random.nextInt(3)) {
+                0 -> {
+                    val identifier = "Class${counter++}"
+                    appendClass(code, identifier, "method${counter++}")
+                    declarations.add(COMMANDS[random.nextInt(2)] to identifier)
+                }
+                1 -> {
+                    val identifier = "function${counter++}"
+                    appendFunction(code, identifier, "")
+                    declarations.add(COMMANDS[random.nextInt(2)] to identifier)
+                }
+                else -> {
+                    val identifier = "property${counter++}"
+                    appendComment(code, "")
+                    code.append("val $identifier = listOf(${random.nextInt(100)}, ${random.nextInt(100)})" +
+                            ".map { it * ${random.nextInt(10) + 1} }\n")
+                    declarations.add(COMMAND_DEF to identifier)
+                }
+            }
+        }
+        val file = SyntheticFile("$pkg.$name", declarations)
+        val source = sourceFile(file.location)
+        source.parentFile.mkdirs()
+        source.writeText(code.toString())
+        return file
+    }
+
+    private fun appendClass(code: StringBuilder, identifier: String, method: String) {
+        appendComment(code, "")
+        code.append("class $identifier(private val first: Int, val second: String) {\n")
+        appendComment(code, "    ")
+        code.append("    val size = second.length + first\n\n")
+        appendFunction(code, method, "    ")
+        code.append("}\n")
+    }
+
+    private fun appendFunction(code: StringBuilder, identifier: String, indent: String) {
+        appendComment(code, indent)
+        code.append("${indent}fun $identifier(items: List<String>, limit: Int): Int {\n")
+        code.append("$indent    var result = 0\n")
+        repeat(random.nextInt(5) + 1) {
+            appendComment(code, "$indent    ")
+            code.append(when (random.nextInt(3)) {
+                0 -> "$indent    result += items.filter { it.length < limit }.size\n"
+                1 -> "$indent    if (result > limit) {\n$indent        result -= limit\n$indent    }\n"
+                else -> "$indent    for (item in items) {\n$indent        result += item.hashCode() % limit\n$indent    }\n"
+            })
+        }
+        code.append("$indent    return result\n$indent}\n")
+    }
+
+    private fun appendComment(code: StringBuilder, indent: String) {
+        if (random.nextDouble() >= options.commentDensity) {
+            return
+        }
+        if (random.nextBoolean()) {
+            code.append("$indent// ${sentence()}\n")
+        } else {
+            code.append("$indent/*\n$indent    ${sentence()}\n$indent    ${sentence()}\n$indent */\n")
+        }
+    }
+
+    private fun generateScenario(index: Int, files: List<SyntheticFile>, included: MutableSet<SyntheticFile>): String {
+        val lines = mutableListOf(root.absolutePath, SYNTHETIC_URL, "", "# Synthetic article $index", "")
+        repeat(options.paragraphs) {
+            if (random.nextInt(10) == 0) {
+                repeat(random.nextInt(3) + 2) { lines.add("* ${sentence()}") }
+            } else {
+                lines.add(List(random.nextInt(4) + 1) { sentence() }.joinToString(separator = " "))
+            }
+            lines.add("")
+            if (random.nextDouble() < options.includeDensity) {
+                val file = files[random.nextInt(files.size)]
+                val (command, identifier) = file.declarations[random.nextInt(file.declarations.size)]
+                lines.add("@include $command ~/${file.location}::$identifier")
+                lines.add("")
+                included.add(file)
+                includes++
+            }
+        }
+        return lines.joinToString(separator = "\n")
+    }
+
+    private fun sentence(): String {
+        val sentence = List(random.nextInt(9) + 6) { words[random.nextInt(words.size)] }.joinToString(separator = " ")
+        return sentence.capitalize() + "."
+    }
+
+    private companion object {
+        val COMMANDS = arrayOf(COMMAND_DECL, COMMAND_DEF)
+    }
+}
@@ -0,0 +1,41 @@
+/*
+    Splits a piece of Kotlin code into comments and code.
+    Generated sources live in src/main/java/com/gzozulin/statements, to regenerate (from this folder):
+    java -cp antlr-4.7.2-complete.jar org.antlr.v4.Tool -visitor -package com.gzozulin.statements \
+        -o ../java/com/gzozulin/statements Statements.g4
+ */
+grammar Statements;
+
+statements
+    : (delimitedComment | lineComment | code)*
+    ;
+
+delimitedComment
+    : DelimitedComment
+    ;
+
+lineComment
+    : LineComment
+    ;
+
+code
+    : (Code | Slash)+
+    ;
+
+DelimitedComment
+    : '/*' ( DelimitedComment | . )*? '*/'
+    ;
+
+LineComment
+    : '//' ~[\r\n]*
+    ;
+
+// Everything up to the next comment is a single token: a slash is allowed as long as it does not start a comment
+Code
+    : ( ~'/' | '/' ~[/*] )+
+    ;
+
+// The only slash which cannot be a part of the code run above - the last character of the input
+Slash
+    : '/'
+    ;
@@ -110,7 +110,7 @@ public class KotlinParser extends Parser {
 			"typeParameter", "type", "typeModifierList", "parenthesizedType", "nullableType", 
 			"typeReference", "functionType", "functionTypeReceiver", "userType", 
 			"simpleUserType", "functionTypeParameters", "typeConstraints", "typeConstraint", 
-			"block", "com/gzozulin/statements", "statement", "blockLevelExpression", "declaration",
+			"block", "statements", "statement", "blockLevelExpression", "declaration",
 			"expression", "disjunction", "conjunction", "equalityComparison", "comparison", 
 			"namedInfix", "elvisExpression", "infixFunctionCall", "rangeExpression", 
 			"additiveExpression", "multiplicativeExpression", "typeRHS", "prefixUnaryExpression", 
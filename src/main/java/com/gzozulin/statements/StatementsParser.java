@@ -16,25 +16,26 @@ public class StatementsParser extends Parser {
 	protected static final PredictionContextCache _sharedContextCache =
 		new PredictionContextCache();
 	public static final int
-		DelimitedComment=1, LineComment=2, Any=3;
+		DelimitedComment=1, LineComment=2, Code=3, Slash=4;
 	public static final int
 		RULE_statements = 0, RULE_delimitedComment = 1, RULE_lineComment = 2, 
 		RULE_code = 3;
 	private static String[] makeRuleNames() {
 		return new String[] {
-				"com/gzozulin/statements", "delimitedComment", "lineComment", "code"
+			"statements", "delimitedComment", "lineComment", "code"
 		};
 	}
 	public static final String[] ruleNames = makeRuleNames();
 
 	private static String[] makeLiteralNames() {
 		return new String[] {
+			null, null, null, null, "'/'"
 		};
 	}
 	private static final String[] _LITERAL_NAMES = makeLiteralNames();
 	private static String[] makeSymbolicNames() {
 		return new String[] {
-			null, "DelimitedComment", "LineComment", "Any"
+			null, "DelimitedComment", "LineComment", "Code", "Slash"
 		};
 	}
 	private static final String[] _SYMBOLIC_NAMES = makeSymbolicNames();
@@ -136,7 +137,7 @@ public class StatementsParser extends Parser {
 			setState(13);
 			_errHandler.sync(this);
 			_la = _input.LA(1);
-			while ((((_la) & ~0x3f) == 0 && ((1L << _la) & ((1L << DelimitedComment) | (1L << LineComment) | (1L << Any))) != 0)) {
+			while ((((_la) & ~0x3f) == 0 && ((1L << _la) & ((1L << DelimitedComment) | (1L << LineComment) | (1L << Code) | (1L << Slash))) != 0)) {
 				{
 				setState(11);
 				_errHandler.sync(this);
@@ -153,7 +154,8 @@ public class StatementsParser extends Parser {
 					lineComment();
 					}
 					break;
-				case Any:
+				case Code:
+				case Slash:
 					{
 					setState(10);
 					code();
@@ -265,9 +267,13 @@ public class StatementsParser extends Parser {
 	}
 
 	public static class CodeContext extends ParserRuleContext {
-		public List<TerminalNode> Any() { return getTokens(StatementsParser.Any); }
-		public TerminalNode Any(int i) {
-			return getToken(StatementsParser.Any, i);
+		public List<TerminalNode> Code() { return getTokens(StatementsParser.Code); }
+		public TerminalNode Code(int i) {
+			return getToken(StatementsParser.Code, i);
+		}
+		public List<TerminalNode> Slash() { return getTokens(StatementsParser.Slash); }
+		public TerminalNode Slash(int i) {
+			return getToken(StatementsParser.Slash, i);
 		}
 		public CodeContext(ParserRuleContext parent, int invokingState) {
 			super(parent, invokingState);
@@ -291,6 +297,7 @@ public class StatementsParser extends Parser {
 	public final CodeContext code() throws RecognitionException {
 		CodeContext _localctx = new CodeContext(_ctx, getState());
 		enterRule(_localctx, 6, RULE_code);
+		int _la;
 		try {
 			int _alt;
 			enterOuterAlt(_localctx, 1);
@@ -304,7 +311,15 @@ public class StatementsParser extends Parser {
 					{
 					{
 					setState(20);
-					match(Any);
+					_la = _input.LA(1);
+					if ( !(_la==Code || _la==Slash) ) {
+					_errHandler.recoverInline(this);
+					}
+					else {
+						if ( _input.LA(1)==Token.EOF ) matchedEOF = true;
+						_errHandler.reportMatch(this);
+						consume();
+					}
 					}
 					}
 					break;
@@ -329,14 +344,14 @@ public class StatementsParser extends Parser {
 	}
 
 	public static final String _serializedATN =
-		"\3\u608b\ua72a\u8133\ub9ed\u417c\u3be7\u7786\u5964\3\5\34\4\2\t\2\4\3"+
+		"\3\u608b\ua72a\u8133\ub9ed\u417c\u3be7\u7786\u5964\3\6\34\4\2\t\2\4\3"+
 		"\t\3\4\4\t\4\4\5\t\5\3\2\3\2\3\2\7\2\16\n\2\f\2\16\2\21\13\2\3\3\3\3\3"+
-		"\4\3\4\3\5\6\5\30\n\5\r\5\16\5\31\3\5\2\2\6\2\4\6\b\2\2\2\33\2\17\3\2"+
-		"\2\2\4\22\3\2\2\2\6\24\3\2\2\2\b\27\3\2\2\2\n\16\5\4\3\2\13\16\5\6\4\2"+
-		"\f\16\5\b\5\2\r\n\3\2\2\2\r\13\3\2\2\2\r\f\3\2\2\2\16\21\3\2\2\2\17\r"+
-		"\3\2\2\2\17\20\3\2\2\2\20\3\3\2\2\2\21\17\3\2\2\2\22\23\7\3\2\2\23\5\3"+
-		"\2\2\2\24\25\7\4\2\2\25\7\3\2\2\2\26\30\7\5\2\2\27\26\3\2\2\2\30\31\3"+
-		"\2\2\2\31\27\3\2\2\2\31\32\3\2\2\2\32\t\3\2\2\2\5\r\17\31";
+		"\4\3\4\3\5\6\5\30\n\5\r\5\16\5\31\3\5\2\2\6\2\4\6\b\2\3\3\2\5\6\2\33\2"+
+		"\17\3\2\2\2\4\22\3\2\2\2\6\24\3\2\2\2\b\27\3\2\2\2\n\16\5\4\3\2\13\16"+
+		"\5\6\4\2\f\16\5\b\5\2\r\n\3\2\2\2\r\13\3\2\2\2\r\f\3\2\2\2\16\21\3\2\2"+
+		"\2\17\r\3\2\2\2\17\20\3\2\2\2\20\3\3\2\2\2\21\17\3\2\2\2\22\23\7\3\2\2"+
+		"\23\5\3\2\2\2\24\25\7\4\2\2\25\7\3\2\2\2\26\30\t\2\2\2\27\26\3\2\2\2\30"+
+		"\31\3\2\2\2\31\27\3\2\2\2\31\32\3\2\2\2\32\t\3\2\2\2\5\r\17\31";
 	public static final ATN _ATN =
 		new ATNDeserializer().deserialize(_serializedATN.toCharArray());
 	static {
@@ -0,0 +1,327 @@
+package com.gzozulin
+
+import org.antlr.v4.runtime.Lexer
+import org.antlr.v4.runtime.Parser
+import org.antlr.v4.runtime.RuntimeMetaData
+import org.antlr.v4.runtime.atn.*
+import org.antlr.v4.runtime.dfa.DFA
+import org.antlr.v4.runtime.dfa.DFAState
+import java.io.*
+import java.util.*
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+private const val SNAPSHOT_VERSION = 1
+
+private val conflictingAltsField = ATNConfigSet::class.java.getDeclaredField("conflictingAlts")
+    .apply { isAccessible = true }
+private val passedThroughNonGreedyField = LexerATNConfig::class.java.getDeclaredField("passedThroughNonGreedyDecision")
+    .apply { isAccessible = true }
+
+// Static DFA of a single recognizer, shared by all of its instances
+internal class DfaSet(val atn: ATN, val serializedAtn: String, val decisions: Array<DFA>, val isLexer: Boolean) {
+    constructor(lexer: Lexer) : this(lexer.atn, lexer.serializedATN, lexer.interpreter.decisionToDFA, true)
+    constructor(parser: Parser) : this(parser.atn, parser.serializedATN, parser.interpreter.decisionToDFA, false)
+
+    val states: Int
+        get() = decisions.sumBy { it.states.size }
+}
+
+/*
+    ANTLR builds its DFA lazily: every JVM starts with empty tables and pays for the ATN simulation until they warm up.
+    The snapshot keeps the warmed tables between runs: states with their configurations, prediction contexts and edges.
+    It is only accepted by the grammar it was taken from - the key is the hash of the serialized ATNs.
+ */
+internal object DfaSnapshot {
+    fun save(file: File, sets: List<DfaSet>) {
+        publishAtomically(file) { stream ->
+            DataOutputStream(BufferedOutputStream(GZIPOutputStream(stream))).use { output ->
+                SnapshotWriter(output, sets).write()
+            }
+            true
+        }
+    }
+
+    // Returns false when there is no snapshot, when it is stale or when the tables are not empty anymore
+    fun load(file: File, sets: List<DfaSet>): Boolean {
+        if (!file.exists() || sets.any { it.states != 0 }) {
+            return false
+        }
+        return try {
+            DataInputStream(BufferedInputStream(GZIPInputStream(FileInputStream(file)))).use { input ->
+                SnapshotReader(input, sets).read()
+            }
+        } catch (e: IOException) {
+            false // broken snapshot is the same as no snapshot
+        }
+    }
+
+    fun grammarKey(sets: List<DfaSet>) =
+        sha256((sets.joinToString(separator = "|") { it.serializedAtn } + RuntimeMetaData.VERSION).toByteArray())
+}
+
+private class SnapshotWriter(private val output: DataOutputStream, private val sets: List<DfaSet>) {
+    private val contexts = mutableListOf<PredictionContext>()
+    private val contextIds = HashMap<PredictionContext, Int>()
+
+    fun write() {
+        val dfaStates = sets.map { set -> set.decisions.map { dfa -> statesOf(dfa) } }
+        // Contexts are shared between the states, so they are written once, ahead of everything else
+        for (states in dfaStates.flatten().flatten()) {
+            for (config in states.configs) {
+                registerContext(config.context)
+            }
+        }
+        output.writeInt(SNAPSHOT_VERSION)
+        output.writeUTF(DfaSnapshot.grammarKey(sets))
+        writeContexts()
+        for ((set, decisions) in sets.zip(dfaStates)) {
+            output.writeInt(decisions.size)
+            for ((dfa, states) in set.decisions.zip(decisions)) {
+                writeDfa(set, dfa, states)
+            }
+        }
+    }
+
+    // States in the map plus the start state of the precedence DFA, which is kept separately
+    private fun statesOf(dfa: DFA): List<DFAState> {
+        val states = dfa.states.values.sortedBy { it.stateNumber }.toMutableList()
+        val s0 = dfa.s0
+        if (s0 != null && !dfa.states.containsKey(s0)) {
+            states.add(s0)
+        }
+        return states
+    }
+
+    private fun registerContext(context: PredictionContext): Int {
+        contextIds[context]?.let { return it }
+        for (i in 0 until context.size()) {
+            context.getParent(i)?.let { registerContext(it) }
+        }
+        contexts.add(context)
+        contextIds[context] = contexts.size - 1
+        return contexts.size - 1
+    }
+
+    private fun writeContexts() {
+        output.writeInt(contexts.size)
+        for (context in contexts) {
+            if (context === PredictionContext.EMPTY) {
+                output.writeInt(-1)
+                continue
+            }
+            output.writeInt(context.size())
+            for (i in 0 until context.size()) {
+                val parent = context.getParent(i)
+                output.writeInt(if (parent == null) -1 else contextIds[parent]!!)
+                output.writeInt(context.getReturnState(i))
+            }
+        }
+    }
+
+    private fun writeDfa(set: DfaSet, dfa: DFA, states: List<DFAState>) {
+        val ids = IdentityHashMap<DFAState, Int>()
+        states.forEachIndexed { index, state -> ids[state] = index }
+        output.writeInt(states.size)
+        for (state in states) {
+            if (state.predicates != null || state.configs.hasSemanticContext) {
+                throw UnsupportedOperationException("Semantic predicates are not supported")
+            }
+            output.writeBoolean(dfa.states.containsKey(state))
+            output.writeBoolean(state.isAcceptState)
+            output.writeInt(state.prediction)
+            output.writeBoolean(state.requiresFullContext)
+            writeExecutor(set, state.lexerActionExecutor)
+            writeConfigs(set, state.configs)
+        }
+        val s0 = dfa.s0
+        output.writeInt(if (s0 == null) -1 else ids[s0]!!)
+        for (state in states) {
+            val edges = state.edges
+            if (edges == null) {
+                output.writeInt(-1)
+                continue
+            }
+            output.writeInt(edges.size)
+            val present = edges.indices.filter { edges[it] != null }
+            output.writeInt(present.size)
+            for (symbol in present) {
+                val target = edges[symbol]
+                output.writeInt(symbol)
+                output.writeInt(if (target === ATNSimulator.ERROR) -1 else ids.getValue(target))
+            }
+        }
+    }
+
+    private fun writeConfigs(set: DfaSet, configs: ATNConfigSet) {
+        output.writeBoolean(configs.fullCtx)
+        output.writeInt(configs.uniqueAlt)
+        val conflictingAlts = conflictingAltsField.get(configs) as BitSet?
+        if (conflictingAlts == null) {
+            output.writeInt(-1)
+        } else {
+            val words = conflictingAlts.toLongArray()
+            output.writeInt(words.size)
+            words.forEach { output.writeLong(it) }
+        }
+        output.writeBoolean(configs.dipsIntoOuterContext)
+        output.writeInt(configs.size)
+        for (config in configs) {
+            if (config.semanticContext != SemanticContext.NONE) {
+                throw UnsupportedOperationException("Semantic predicates are not supported")
+            }
+            output.writeInt(config.state.stateNumber)
+            output.writeInt(config.alt)
+            output.writeInt(contextIds[config.context]!!)
+            output.writeInt(config.reachesIntoOuterContext)
+            if (set.isLexer) {
+                config as LexerATNConfig
+                output.writeBoolean(config.hasPassedThroughNonGreedyDecision())
+                writeExecutor(set, config.lexerActionExecutor)
+            }
+        }
+    }
+
+    // Lexer actions are referenced by their position in the ATN
+    private fun writeExecutor(set: DfaSet, executor: LexerActionExecutor?) {
+        if (executor == null) {
+            output.writeInt(-1)
+            return
+        }
+        output.writeInt(executor.lexerActions.size)
+        for (action in executor.lexerActions) {
+            val index = set.atn.lexerActions.indexOf(action)
+            if (index == -1) {
+                throw UnsupportedOperationException("Position dependent lexer actions are not supported")
+            }
+            output.writeInt(index)
+        }
+    }
+}
+
+private class SnapshotReader(private val input: DataInputStream, private val sets: List<DfaSet>) {
+    private lateinit var contexts: Array<PredictionContext?>
+
+    fun read(): Boolean {
+        if (input.readInt() != SNAPSHOT_VERSION || input.readUTF() != DfaSnapshot.grammarKey(sets)) {
+            return false
+        }
+        readContexts()
+        // Everything is read first - the shared tables are only touched when the whole snapshot is valid
+        val restored = sets.map { set ->
+            check(input.readInt() == set.decisions.size) { "Snapshot does not match the grammar" }
+            set.decisions.map { dfa -> readDfa(set, dfa) }
+        }
+        for ((set, decisions) in sets.zip(restored)) {
+            for ((dfa, restore) in set.decisions.zip(decisions)) {
+                restore.invoke(dfa)
+            }
+        }
+        return true
+    }
+
+    private fun readContexts() {
+        contexts = arrayOfNulls(input.readInt())
+        for (i in contexts.indices) {
+            val size = input.readInt()
+            if (size == -1) {
+                contexts[i] = PredictionContext.EMPTY
+                continue
+            }
+            val parents = arrayOfNulls<PredictionContext>(size)
+            val returnStates = IntArray(size)
+            for (j in 0 until size) {
+                val parent = input.readInt()
+                parents[j] = if (parent == -1) null else contexts[parent]
+                returnStates[j] = input.readInt()
+            }
+            contexts[i] = if (size == 1) {
+                SingletonPredictionContext.create(parents[0], returnStates[0])
+            } else {
+                ArrayPredictionContext(parents, returnStates)
+            }
+        }
+    }
+
+    private fun readDfa(set: DfaSet, dfa: DFA): (DFA) -> Unit {
+        val count = input.readInt()
+        val inMap = BooleanArray(count)
+        val states = Array(count) { index ->
+            inMap[index] = input.readBoolean()
+            val isAcceptState = input.readBoolean()
+            val prediction = input.readInt()
+            val requiresFullContext = input.readBoolean()
+            val executor = readExecutor(set)
+            DFAState(readConfigs(set)).apply {
+                this.stateNumber = index
+                this.isAcceptState = isAcceptState
+                this.prediction = prediction
+                this.requiresFullContext = requiresFullContext
+                this.lexerActionExecutor = executor
+            }
+        }
+        val s0 = input.readInt()
+        for (state in states) {
+            val size = input.readInt()
+            if (size == -1) {
+                continue
+            }
+            val edges = arrayOfNulls<DFAState>(size)
+            repeat(input.readInt()) {
+                val symbol = input.readInt()
+                val target = input.readInt()
+                edges[symbol] = if (target == -1) ATNSimulator.ERROR else states[target]
+            }
+            state.edges = edges
+        }
+        check(s0 == -1 || inMap[s0] || dfa.isPrecedenceDfa) { "Snapshot does not match the grammar" }
+        return { target ->
+            states.forEachIndexed { index, state ->
+                if (inMap[index]) {
+                    target.states[state] = state
+                }
+            }
+            if (s0 != -1) {
+                target.s0 = states[s0]
+            }
+        }
+    }
+
+    private fun readConfigs(set: DfaSet): ATNConfigSet {
+        val fullCtx = input.readBoolean()
+        val configs = if (set.isLexer) OrderedATNConfigSet() else ATNConfigSet(fullCtx)
+        val uniqueAlt = input.readInt()
+        val words = input.readInt()
+        val conflictingAlts = if (words == -1) null else BitSet.valueOf(LongArray(words) { input.readLong() })
+        val dipsIntoOuterContext = input.readBoolean()
+        repeat(input.readInt()) {
+            val state = set.atn.states[input.readInt()]
+            val alt = input.readInt()
+            val context = contexts[input.readInt()]
+            val reachesIntoOuterContext = input.readInt()
+            val config = if (set.isLexer) {
+                val passedThroughNonGreedy = input.readBoolean()
+                LexerATNConfig(state, alt, context, readExecutor(set)).also {
+                    passedThroughNonGreedyField.setBoolean(it, passedThroughNonGreedy)
+                }
+            } else {
+                ATNConfig(state, alt, context, SemanticContext.NONE)
+            }
+            config.reachesIntoOuterContext = reachesIntoOuterContext
+            configs.add(config)
+        }
+        configs.uniqueAlt = uniqueAlt
+        conflictingAltsField.set(configs, conflictingAlts)
+        configs.dipsIntoOuterContext = dipsIntoOuterContext
+        configs.isReadonly = true
+        return configs
+    }
+
+    private fun readExecutor(set: DfaSet): LexerActionExecutor? {
+        val size = input.readInt()
+        if (size == -1) {
+            return null
+        }
+        return LexerActionExecutor(Array(size) { set.atn.lexerActions[input.readInt()] })
+    }
+}
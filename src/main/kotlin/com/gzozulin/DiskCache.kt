@@ -0,0 +1,107 @@
+package com.gzozulin
+
+import java.io.*
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+
+private val contentHashes = ConcurrentHashMap<File, String>()
+
+internal fun sha256(bytes: ByteArray): String =
+    MessageDigest.getInstance("SHA-256").digest(bytes).joinToString(separator = "") { "%02x".format(it) }
+
+// The hash of the file is calculated once per run - no matter how many includes are pointing to it
+internal fun contentHash(file: File): String =
+    contentHashes.getOrPut(file.absoluteFile) { sha256(file.readBytes()) }
+
+/*
+    The file is read once for parsing, and its hash becomes the hash of exactly these bytes.
+    Whatever is written to the disk afterwards, the includes cut out of them are stored under the right key.
+ */
+internal fun readHashed(file: File): ByteArray {
+    val bytes = file.readBytes()
+    contentHashes[file.absoluteFile] = sha256(bytes)
+    return bytes
+}
+
+internal fun forgetContentHash(file: File) {
+    contentHashes.remove(file.absoluteFile)
+}
+
+internal fun forgetContentHashes() {
+    contentHashes.clear()
+}
+
+/*
+    The file is written into a temporary one next to it and only the complete one is moved into its place:
+    concurrent readers either see the whole file or the previous one. When the write returns false,
+    the file is left as it was. The temporary file is removed in any case.
+ */
+internal inline fun publishAtomically(file: File, write: (output: OutputStream) -> Boolean): Boolean {
+    val folder = file.absoluteFile.parentFile
+    folder.mkdirs()
+    val temp = File.createTempFile(file.name, ".tmp", folder)
+    try {
+        val publish = FileOutputStream(temp).use { write(it) }
+        if (publish) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        }
+        return publish
+    } finally {
+        temp.delete()
+    }
+}
+
+/*
+    A persistent store for lists of strings, addressed by the hash of the key.
+    Entries are written into a temporary file first and moved into place, so concurrent readers
+    either see the complete entry or nothing at all.
+ */
+internal class DiskCache(private val folder: File) {
+    fun get(key: String): List<String>? {
+        val file = entryFile(key)
+        if (!file.exists()) {
+            return null
+        }
+        return try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                val count = input.readInt()
+                List(count) {
+                    val bytes = ByteArray(input.readInt())
+                    input.readFully(bytes)
+                    String(bytes, Charsets.UTF_8)
+                }
+            }
+        } catch (e: IOException) {
+            null // broken entry is the same as no entry
+        }
+    }
+
+    // Cheaper than get when the entry itself is not needed
+    fun contains(key: String) = entryFile(key).exists()
+
+    // Failing to store is not fatal - on Windows the move is refused while someone is reading the same entry
+    fun put(key: String, values: List<String>) {
+        try {
+            publishAtomically(entryFile(key)) { stream ->
+                DataOutputStream(BufferedOutputStream(stream)).use { output ->
+                    output.writeInt(values.size)
+                    for (value in values) {
+                        val bytes = value.toByteArray(Charsets.UTF_8)
+                        output.writeInt(bytes.size)
+                        output.write(bytes)
+                    }
+                }
+                true
+            }
+        } catch (e: IOException) {
+            // the entry is calculated again next time
+        }
+    }
+
+    private fun entryFile(key: String): File {
+        val hash = sha256(key.toByteArray(Charsets.UTF_8))
+        return File(File(folder, hash.substring(0, 2)), hash)
+    }
+}
@@ -0,0 +1,82 @@
+package com.gzozulin
+
+import java.io.Closeable
+import java.io.File
+import java.nio.file.*
+import java.util.concurrent.TimeUnit
+
+// Editors tend to save in several steps - events closer than this are reported as a single change
+private const val QUIET_PERIOD_MS = 50L
+
+/*
+    WatchService only reports the changes in the directories it is registered for,
+    so each of the roots is walked and every nested directory is registered separately.
+    The folders the app is writing to itself are skipped - along with the hidden ones.
+ */
+internal class FileWatcher(ignored: Collection<File>) : Closeable {
+    private val ignored = ignored.map { it.absoluteFile.normalize() }.toSet()
+    private val service = FileSystems.getDefault().newWatchService()
+    private val directories = mutableMapOf<WatchKey, Path>()
+    // Same directories by their paths - checked for every directory of every walk, so it has to be cheap
+    private val registered = HashSet<Path>()
+
+    fun register(root: File) {
+        val absolute = root.absoluteFile.normalize()
+        if (absolute in ignored) {
+            return
+        }
+        absolute.walkTopDown()
+            .onEnter { it == absolute || !(it.isHidden || it in ignored) }
+            .filter { it.isDirectory }
+            .forEach { registerDirectory(it.toPath()) }
+    }
+
+    private fun registerDirectory(directory: Path) {
+        if (!registered.add(directory)) {
+            return
+        }
+        val key = directory.register(service,
+            StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE)
+        directories[key] = directory
+    }
+
+    // Blocks until something is changed, returns all of the files touched since
+    fun awaitChanges(): Set<File> {
+        val changed = mutableSetOf<File>()
+        var key: WatchKey? = service.take()
+        while (key != null) {
+            collect(key, changed)
+            key = service.poll(QUIET_PERIOD_MS, TimeUnit.MILLISECONDS)
+        }
+        return changed
+    }
+
+    private fun collect(key: WatchKey, changed: MutableSet<File>) {
+        val directory = directories[key]
+        if (directory != null) {
+            for (event in key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    continue
+                }
+                val path = directory.resolve(event.context() as Path)
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                    // Same rules as for the directories found by the walk
+                    if (!path.toFile().isHidden) {
+                        register(path.toFile())
+                    }
+                } else {
+                    changed.add(path.toFile())
+                }
+            }
+        }
+        if (!key.reset()) {
+            // The directory is gone - if it comes back, it is registered again
+            directories.remove(key)?.let { registered.remove(it) }
+        }
+    }
+
+    override fun close() {
+        service.close()
+    }
+}
@@ -0,0 +1,105 @@
+package com.gzozulin
+
+import jdk.jfr.*
+
+/*
+    Custom events for Java Flight Recorder: in a recording, the CPU and the allocations of the worker threads are
+    attributed to the files and declarations they were spent on. When nothing is recording, the events are never
+    committed and the fields are never filled in - the JIT is left with next to nothing.
+ */
+internal inline fun <E : Event, T> recordEvent(event: E, fields: E.(T) -> Unit, block: () -> T): T {
+    event.begin()
+    val result = block()
+    event.end()
+    if (event.shouldCommit()) {
+        event.fields(result)
+        event.commit()
+    }
+    return result
+}
+
+@Name("lemV2.CreateParser")
+@Label("Create Parser")
+@Category("lemV2")
+@Description("Source file is read and the lexer with the parser are created for it")
+internal class CreateParserEvent : Event() {
+    @Label("File")
+    @JvmField var file: String? = null
+}
+
+@Name("lemV2.ParseKotlin")
+@Label("Parse Kotlin")
+@Category("lemV2")
+@Description("Source file is parsed and its declarations are indexed")
+internal class ParseKotlinEvent : Event() {
+    @Label("File")
+    @JvmField var file: String? = null
+
+    @Label("Tokens")
+    @JvmField var tokens: Int = 0
+}
+
+@Name("lemV2.LocateKotlin")
+@Label("Locate Kotlin")
+@Category("lemV2")
+@Description("Declaration is looked up in the parsed file")
+internal class LocateKotlinEvent : Event() {
+    @Label("File")
+    @JvmField var file: String? = null
+
+    @Label("Identifier")
+    @JvmField var identifier: String? = null
+
+    @Label("Tokens")
+    @JvmField var tokens: Int = 0
+}
+
+@Name("lemV2.ExtractStatements")
+@Label("Extract Statements")
+@Category("lemV2")
+@Description("Tokens of an include are split into code and comments")
+internal class ExtractStatementsEvent : Event() {
+    @Label("File")
+    @JvmField var file: String? = null
+
+    @Label("Identifier")
+    @JvmField var identifier: String? = null
+
+    @Label("Tokens")
+    @JvmField var tokens: Int = 0
+
+    @Label("Output Bytes")
+    @DataAmount
+    @JvmField var outputBytes: Long = 0
+}
+
+@Name("lemV2.RenderHtml")
+@Label("Render Html")
+@Category("lemV2")
+@Description("Markdown snippet is rendered to html with flexmark")
+internal class RenderHtmlEvent : Event() {
+    @Label("Input Bytes")
+    @DataAmount
+    @JvmField var inputBytes: Long = 0
+
+    @Label("Output Bytes")
+    @DataAmount
+    @JvmField var outputBytes: Long = 0
+}
+
+@Name("lemV2.RenderFile")
+@Label("Render File")
+@Category("lemV2")
+@Description("Rendered snippet is written into the output file, or the finished file is published")
+internal class RenderFileEvent : Event() {
+    @Label("File")
+    @JvmField var file: String? = null
+
+    @Label("Output Bytes")
+    @DataAmount
+    @JvmField var outputBytes: Long = 0
+
+    @Label("Published")
+    @Description("The finished file is compared with the old one and moved in its place")
+    @JvmField var published: Boolean = false
+}
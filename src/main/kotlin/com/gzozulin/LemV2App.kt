@@ -8,15 +8,24 @@ import com.gzozulin.statements.StatementsLexer
 import com.gzozulin.statements.StatementsParser
 import com.vladsch.flexmark.html.HtmlRenderer
 import com.vladsch.flexmark.parser.Parser
+import com.vladsch.flexmark.util.data.DataHolder
 import com.vladsch.flexmark.util.data.MutableDataSet
 import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.channels.SendChannel
 import kotlinx.coroutines.sync.Mutex
-import kotlinx.coroutines.sync.withLock
-import org.antlr.v4.runtime.CharStreams
-import org.antlr.v4.runtime.CommonTokenStream
-import org.antlr.v4.runtime.ParserRuleContext
-import org.antlr.v4.runtime.Token
+import org.antlr.v4.runtime.*
+import org.antlr.v4.runtime.atn.LexerATNSimulator
+import org.antlr.v4.runtime.atn.ParserATNSimulator
+import org.antlr.v4.runtime.atn.PredictionMode
+import org.antlr.v4.runtime.misc.ParseCancellationException
 import java.io.File
+import java.security.DigestOutputStream
+import java.security.MessageDigest
+import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.system.measureNanoTime
 import kotlin.system.measureTimeMillis
 
 // region --------------------------- ToDo ---------------------------
@@ -29,127 +38,503 @@ import kotlin.system.measureTimeMillis
 
 private val         inputFolder = File("scenarios")
 private val         outputFolder = File("output")
+/*
+    The caches can be moved elsewhere - the scale test and the benchmark keep them apart from the usual ones.
+    The property is read when the caches are opened - on the first use of anything from the app, so it is set before.
+ */
+internal const val  CACHE_FOLDER_PROPERTY = "lemV2.cache"
+private val         cacheFolder = File(System.getProperty(CACHE_FOLDER_PROPERTY) ?: "cache")
 
 private val         whitespacePattern = "\\s+".toPattern()
+private val         listItemPattern = "^ {0,3}([-+*]|\\d{1,9}[.)])([ \t]|$)".toPattern()
+private val         fencePattern = "^ {0,3}(`{3,}|~{3,})".toPattern()
+private val         definitionPattern = "^ {0,3}\\[([^\\]]+)]:".toPattern()
+private val         referencePattern = "\\[([^\\]]+)]".toPattern()
 
 private const val   HOME_DIR = "src/main/kotlin"
 
+private const val   FLAG_FORCE = "--force"
+private const val   FLAG_WATCH = "--watch"
+private const val   FLAG_STATEMENTS_GRAMMAR = "--statements-grammar"
+
 private const val   COMMAND_PREFIX = "@"
-private const val   COMMAND_DECL = "decl"
-private const val   COMMAND_DEF = "def"
+internal const val  COMMAND_DECL = "decl"
+internal const val  COMMAND_DEF = "def"
+
+private const val   FLAG_LL_ONLY = "--ll-only"
+private const val   FLAG_NO_DFA_SNAPSHOT = "--no-dfa-snapshot"
+private const val   FLAG_WORKER_DFA = "--worker-dfa"
+private const val   FLAG_CACHE_BUDGET = "--cache-budget="
+private const val   FLAG_METRICS_JSON = "--metrics-json="
+private const val   FLAG_TRACE = "--trace="
+private const val   FLAG_PROFILE_PARSER = "--profile-parser"
+
+// Parser caches are bounded by the memory they approximately take, each cache has its own budget
+private const val   DEFAULT_CACHE_BUDGET = 256L * 1024 * 1024
+private const val   DEFAULT_HTML_MEMO_BUDGET = 32L * 1024 * 1024
+private const val   MEGABYTE = 1024f * 1024f
+private const val   TOKEN_WEIGHT = 64L
+private const val   CHAR_WEIGHT = 2L
+
+// Bump this when the way snippets are extracted changes - all of the cached includes will be ignored
+private const val   INCLUDE_CACHE_VERSION = 1
+// Same for the rendered html - bump it when flexmark is updated
+private const val   HTML_CACHE_VERSION = 1
+
+// How many snippets each stage of the pipeline can get ahead of the next one
+private const val   PIPELINE_CAPACITY = 64
 
 private const val   CODE_TEMPLATE = "```kotlin\n%s\n```"
 private const val   HTML_LINK_TEMPLATE = "[%s](%s)"
 private const val   H5_TEMPLATE = "##### %s"
 
+private var         extractionMode = ExtractionMode.TOKENS
+private var         predictionStrategy = PredictionStrategy.SLL_FIRST
+private var         dfaMode = DfaMode.SHARED
+private var         dfaSnapshot = true
+private var         savedDfaStates = 0
+private var         metricsJson: File? = null
+private var         traceFile: File? = null
+// Only there when asked for: the profiling simulator makes every prediction several times slower
+private var         kotlinParserProfile: ParserProfile? = null
+
+private val         sllParses = AtomicInteger()
+private val         llFallbacks = AtomicInteger()
+private val         writtenOutputs = AtomicInteger()
+private val         unchangedOutputs = AtomicInteger()
+private val         htmlRendered = AtomicInteger()
+private val         htmlFromMemory = AtomicInteger()
+private val         htmlFromDisk = AtomicInteger()
+
+private val         includeCache = DiskCache(File(cacheFolder, "includes"))
+private val         manifestCache = DiskCache(File(cacheFolder, "manifests"))
+private val         dfaSnapshotFile = File(cacheFolder, "kotlin.dfa")
+
+// Prediction tables of the Kotlin lexer and parser, shared by all of their instances
+private val         kotlinLexerDfa = DfaSet(KotlinLexer(CharStreams.fromString("")))
+private val         kotlinParserDfa = DfaSet(KotlinParser(CommonTokenStream(KotlinLexer(CharStreams.fromString("")))))
+private val         kotlinWorkerLexerDfa = WorkerDfa(kotlinLexerDfa)
+private val         kotlinWorkerParserDfa = WorkerDfa(kotlinParserDfa)
+private val         kotlinDfaSets = listOf(kotlinLexerDfa, kotlinParserDfa)
+
 private val         flexmarkOptions = MutableDataSet()
 private val         flexmarkParser = Parser.builder(flexmarkOptions).build()
 private val         flexmarkRenderer = HtmlRenderer.builder(flexmarkOptions).build()
 
-private data class ScenarioArguments(val root: File, val url: String, val lines: List<String>)
+// Rendered html is remembered by the hash of markdown - for the process and between the runs
+private val         flexmarkFingerprint = flexmarkFingerprint(flexmarkOptions)
+private val         htmlMemo = HtmlMemo()
+private val         htmlCache = DiskCache(File(cacheFolder, "html"))
+
+// The hash is the one of the text the lines were read from - the output is made out of exactly that
+private data class ScenarioArguments(val root: File, val url: String, val lines: List<String>, val hash: String)
+
+internal data class Location(val root: File, val file: File, val identifier: String, val url: String)
+
+internal enum class DeclarationKind { CLASS, FUNCTION, PROPERTY }
+
+// Declaration boundaries are stored as token indices: start and stop of the whole declaration, beginning of the body
+internal data class Declaration(
+    val kind: DeclarationKind, val start: Int, val stop: Int, val bodyStart: Int?, val line: Int)
+
+internal class KotlinDeclarations(val tokens: List<Token>, val index: Map<String, Declaration>)
+
+// Commands in the scenario order and the distinct ones grouped by the file they are pointing to
+private class CommandPlan(val commands: List<Pair<String, Location>>, val byFile: Map<File, List<Pair<String, Location>>>)
+
+// Tokens of an include and the line it starts at - cut out of the parsed file
+private class IncludeSlice(val line: Int, val tokens: List<Token>)
 
-private data class Location(val root: File, val file: File, val identifier: String, val url: String)
+private enum class StatementKind { DELIMITED_COMMENT, LINE_COMMENT, CODE }
+private data class Statement(val kind: StatementKind, val text: String)
 
-private interface Snippet
-private data class SnippetMarkdown(val markdown: String) : Snippet
+// Comments can be split from the code right on the Kotlin tokens, or with the separate Statements grammar
+private enum class ExtractionMode { TOKENS, GRAMMAR }
+
+// Kotlin files are parsed with the fast SLL prediction first, full LL is used only when SLL fails
+private enum class PredictionStrategy { SLL_FIRST, LL }
+
+// Either all of the Kotlin parsers are filling the same prediction tables, or each worker thread has its own
+private enum class DfaMode { SHARED, PER_WORKER }
+
+internal interface Snippet
+internal data class SnippetMarkdown(val markdown: String) : Snippet
 private data class SnippetCommand(val command: String): Snippet
-private data class SnippetHtml(val html: String): Snippet
+internal data class SnippetHtml(val html: String): Snippet
 
 private typealias AntlrParser = org.antlr.v4.runtime.Parser
-private abstract class ParserCache<K, T : AntlrParser> {
-    private data class CacheEntry<T : AntlrParser>(var parser: T? = null, val mutex: Mutex = Mutex())
+private abstract class ParserCache<K, T : AntlrParser, R> {
+    private class CacheEntry<R>(@Volatile var parsed: R? = null, val mutex: Mutex = Mutex())
 
-    private val cache = mutableMapOf<K, CacheEntry<T>>()
-    fun useParser(key: K, action: (parser: T, stream: CommonTokenStream) -> Unit) {
-        var entry: CacheEntry<T>
-        synchronized(cache) {
-            if (!cache.containsKey(key)) {
-                cache[key] = CacheEntry()
+    // The entries still being parsed weigh nothing yet, and they are never evicted
+    private val cache = WeightedLru<K, CacheEntry<R>>(DEFAULT_CACHE_BUDGET) { it.parsed == null }
+
+    // Approximate amount of memory the parsed entries are allowed to occupy
+    var budget: Long
+        get() = synchronized(cache) { cache.budget }
+        set(value) = synchronized(cache) { cache.budget = value }
+    var hits = 0L
+        private set
+    var misses = 0L
+        private set
+
+    // Waiting for the entry suspends the coroutine - the thread is free to do something else meanwhile
+    suspend fun useParser(key: K, action: (parsed: R) -> Unit) {
+        val entry = synchronized(cache) {
+            cache[key] ?: CacheEntry<R>().also { cache.put(key, it, 0L) }
+        }
+        /*
+            Each key is parsed only once - the mutex is only held by the first caller while parsing.
+            The result is an immutable snapshot, so all of the consecutive calls read it at the same time
+         */
+        var missed = false
+        val parsed = entry.parsed ?: entry.mutex.withTracedLock(key) {
+            entry.parsed ?: Tracer.span("miss", "task", { mapOf("file" to key) }) { parse(createParser(key)) }.also {
+                entry.parsed = it
+                missed = true
+                admit(key, entry, weigh(it))
             }
-            entry = cache[key]!!
         }
-        return runBlocking {
-            entry.mutex.withLock {
-                if (entry.parser == null) {
-                    entry.parser = createParser(key)
-                }
-                val parser = entry.parser!!
-                val stream = parser.tokenStream as CommonTokenStream
-                parser.reset()
-                action.invoke(parser, stream)
+        if (!missed) {
+            synchronized(cache) { hits++ }
+        }
+        action.invoke(parsed)
+    }
+
+    private fun admit(key: K, entry: CacheEntry<R>, entryWeight: Long) {
+        synchronized(cache) {
+            misses++
+            if (cache[key] !== entry) {
+                return // invalidated while parsing
             }
+            cache.put(key, entry, entryWeight)
+        }
+    }
+
+    fun invalidate(predicate: (key: K) -> Boolean) {
+        synchronized(cache) {
+            cache.removeIf(predicate)
+        }
+    }
+
+    fun report(name: String) {
+        synchronized(cache) {
+            println("%s cache: %d hits, %d misses, %d evictions, %d entries, %.1f of %.1f MB".format(
+                name, hits, misses, cache.evictions, cache.size, cache.weight / MEGABYTE, cache.budget / MEGABYTE))
         }
     }
 
     protected abstract fun createParser(key: K): T
+    protected abstract fun parse(parser: T): R
+    // Rough estimation of the memory held by the parsed result, in bytes
+    protected abstract fun weigh(parsed: R): Long
+}
+
+/*
+    Html of the snippets rendered lately. Same as with the parsers, the memory is bounded:
+    in the watch mode every version of a snippet ever written would be here otherwise.
+    The least recently used ones are dropped first - they are still on the disk if needed again.
+ */
+private class HtmlMemo {
+    private val memo = WeightedLru<String, SnippetHtml>(DEFAULT_HTML_MEMO_BUDGET)
+
+    var budget: Long
+        @Synchronized get() = memo.budget
+        @Synchronized set(value) {
+            memo.budget = value
+        }
+
+    @Synchronized
+    fun get(key: String): SnippetHtml? = memo[key]
+
+    @Synchronized
+    fun put(key: String, html: SnippetHtml) = memo.put(key, html, (key.length + html.html.length) * CHAR_WEIGHT)
+
+    @Synchronized
+    fun clear() = memo.clear()
 }
 
-private val kotlinParserCache = object : ParserCache<File, KotlinParser>() {
+private val kotlinParserCache = object : ParserCache<File, KotlinParser, KotlinDeclarations>() {
     override fun createParser(key: File): KotlinParser {
         println("Creating parser for: $key")
-        return KotlinParser(CommonTokenStream(KotlinLexer(CharStreams.fromFileName(key.absolutePath))))
+        val parser = recordEvent(CreateParserEvent(), { file = key.path }) {
+            val text = String(readHashed(key), Charsets.UTF_8)
+            KotlinParser(CommonTokenStream(KotlinLexer(CharStreams.fromString(text, key.absolutePath))))
+        }
+        val lexer = parser.tokenStream.tokenSource as KotlinLexer
+        // Parsing happens right after, on the same thread - there is no suspension point in between
+        if (dfaMode == DfaMode.PER_WORKER) {
+            lexer.interpreter = LexerATNSimulator(lexer, lexer.atn,
+                kotlinWorkerLexerDfa.decisions(), kotlinWorkerLexerDfa.contextCache())
+            parser.interpreter = ParserATNSimulator(parser, parser.atn,
+                kotlinWorkerParserDfa.decisions(), kotlinWorkerParserDfa.contextCache())
+        }
+        // Profiling simulator is wrapped around the same tables the parser was given above
+        if (kotlinParserProfile != null) {
+            parser.setProfile(true)
+        }
+        return parser
+    }
+
+    override fun parse(parser: KotlinParser) =
+        Metrics.measure(Stage.PARSE_KOTLIN, { parser.inputStream.tokenSource.inputStream.size().toLong() }) {
+            recordEvent(ParseKotlinEvent(), { file = parser.inputStream.sourceName; tokens = it.tokens.size }) {
+                parseKotlin(parser)
+            }
+        }.also {
+            kotlinParserProfile?.add(parser.parseInfo.decisionInfo)
+        }
+
+    // Tokens with their positions and the source text behind them - the index is negligible in comparison
+    override fun weigh(parsed: KotlinDeclarations): Long {
+        val chars = parsed.tokens.lastOrNull()?.stopIndex ?: 0
+        return parsed.tokens.size * TOKEN_WEIGHT + chars * CHAR_WEIGHT
     }
 }
 
-private val statementsParserCache = object : ParserCache<String, StatementsParser>() {
+private val statementsParserCache = object : ParserCache<String, StatementsParser, List<Statement>>() {
     override fun createParser(key: String) =
         StatementsParser(CommonTokenStream(StatementsLexer(CharStreams.fromString(key))))
+
+    override fun parse(parser: StatementsParser) = locateStatements(parser)
+
+    // The key is the snippet itself, the statements are holding one more copy of it
+    override fun weigh(parsed: List<Statement>) =
+        parsed.sumBy { it.text.length } * 2 * CHAR_WEIGHT
 }
 
 // Everything is straightforward here - we just check if the line starts with **@** symbol
 private fun identifyCommands(lines: List<String>) = lines
     .map { if (it.startsWith(COMMAND_PREFIX)) SnippetCommand(it) else SnippetMarkdown(it) }
 
-// The first part of this routine will asynchronously apply commands one-by-one
-private fun applyCommands(snippets: List<Snippet>, root: File, url: String): List<SnippetMarkdown> {
-    val result = mutableListOf<SnippetMarkdown>()
-    lateinit var handled: ArrayList<List<SnippetMarkdown>>
-    runBlocking {
-        val deferred = mutableListOf<Deferred<List<SnippetMarkdown>>>()
-        for (snippet in snippets) {
-            if (snippet is SnippetCommand) {
-                deferred.add(async (Dispatchers.Default) { applyCommand(snippet, root, url) })
+/*
+    Lines of the scenario are glued back into markdown blocks - but only where markdown itself spans several lines:
+    fenced code, indented code and lists with their indented continuations. A plain line of prose is a paragraph
+    on its own, the same as a heading, a raw html separator or a link definition - that is how scenarios are written.
+    A blank line ends the block, unless it is inside of the fence or the list goes on after it.
+    Blocks do not depend on each other, so they are rendered separately. Commands are always the blocks on their own.
+    The only thing shared between the blocks are the link reference definitions: a definition is added
+    to the blocks which are using its label, the rest of them are left as they are.
+ */
+internal fun groupBlocks(snippets: List<Snippet>): List<Snippet> {
+    val result = mutableListOf<Snippet>()
+    val block = mutableListOf<String>()
+    val definitions = mutableMapOf<String, String>()
+    var fence: String? = null
+    var inList = false
+    var inCode = false
+    var blanks = 0
+    fun flush() {
+        if (block.isNotEmpty()) {
+            result.add(SnippetMarkdown(block.joinToString(separator = "\n")))
+            block.clear()
+        }
+        fence = null
+        inList = false
+        inCode = false
+        blanks = 0
+    }
+    for (snippet in snippets) {
+        if (snippet is SnippetCommand) {
+            flush()
+            result.add(snippet)
+            continue
+        }
+        val line = (snippet as SnippetMarkdown).markdown
+        val currentFence = fence
+        if (currentFence != null) {
+            block.add(line)
+            // Closing fence is indented by three spaces at most, the deeper one is still the code
+            val unindented = line.trimStart(' ')
+            val trimmed = unindented.trimEnd()
+            if (line.length - unindented.length <= 3
+                && trimmed.length >= currentFence.length && trimmed.all { it == currentFence[0] }) {
+                fence = null
+                // The fence inside of a list item is just a part of the list
+                if (!inList) {
+                    flush()
+                }
+            }
+            continue
+        }
+        if (line.isBlank()) {
+            if (block.isNotEmpty()) {
+                blanks++
+            }
+            continue
+        }
+        val isListItem = listItemPattern.matcher(line).find()
+        val isIndented = line.startsWith("    ") || line.startsWith("\t")
+        if (block.isNotEmpty()) {
+            // The items of the list can be separated by blank lines, the content of an item is indented
+            val continuesList = inList && (isListItem || line[0] == ' ' || line[0] == '\t')
+            if (continuesList || inCode && isIndented) {
+                repeat(blanks) { block.add("") }
+                blanks = 0
+            } else {
+                flush()
             }
         }
-        handled = ArrayList(deferred.awaitAll())
+        val fenceMatcher = fencePattern.matcher(line)
+        if (fenceMatcher.find()) {
+            fence = fenceMatcher.group(1)
+        } else if (block.isEmpty() && !isListItem && !isIndented) {
+            val definitionMatcher = definitionPattern.matcher(line)
+            if (definitionMatcher.find()) {
+                definitions[referenceLabel(definitionMatcher.group(1))] = line
+            }
+            result.add(SnippetMarkdown(line))
+            continue
+        }
+        if (block.isEmpty()) {
+            inList = isListItem
+            inCode = isIndented && fence == null
+        }
+        block.add(line)
+    }
+    flush()
+    if (definitions.isEmpty()) {
+        return result
+    }
+    return result.map { snippet ->
+        if (snippet !is SnippetMarkdown || definitionPattern.matcher(snippet.markdown).find()) {
+            return@map snippet
+        }
+        val used = referencePattern.matcher(snippet.markdown).let { matcher ->
+            generateSequence { if (matcher.find()) referenceLabel(matcher.group(1)) else null }
+                .mapNotNull { definitions[it] }.distinct().toList()
+        }
+        if (used.isEmpty()) snippet else SnippetMarkdown("${snippet.markdown}\n\n${used.joinToString(separator = "\n")}")
+    }
+}
+
+// Labels are matched the way markdown does it: case-insensitive, with the whitespace collapsed
+private fun referenceLabel(label: String) = label.trim().replace(whitespacePattern.toRegex(), " ").toLowerCase()
+
+/*
+    Before anything is applied, the commands are planned: each distinct command is parsed only once
+    and the commands are grouped by the file they are pointing to. Most of them are already parsed by the prefetch.
+ */
+private fun planCommands(snippets: List<Snippet>, root: File, url: String,
+                         parsed: MutableMap<String, Pair<String, Location>>): CommandPlan {
+    val commands = snippets
+        .filterIsInstance<SnippetCommand>()
+        .map { parsed.getOrPut(it.command) { parseCommand(it, root, url) } }
+    val byFile = commands.distinct().groupBy { (_, location) -> File(location.root, location.file.path) }
+    return CommandPlan(commands, byFile)
+}
+
+// The first part of this routine will asynchronously apply commands - all of the commands for a file at once
+private fun CoroutineScope.applyCommands(snippets: List<Snippet>, plan: CommandPlan): ReceiveChannel<SnippetMarkdown> {
+    val handled = plan.byFile.mapValues { (file, commands) ->
+        async (Dispatchers.Default) { applyFileCommands(file, commands) }
     }
     /*
-        When all of the results are available,
-        we can assemble them into a list in the *same order* as they were started
+        As soon as the results for the next command are available,
+        they are passed further in the *same order* as the commands were started
      */
-    for (snippet in snippets) {
-        if (snippet is SnippetCommand) {
-            result.addAll(handled.removeAt(0))
+    return pipelineStage { channel ->
+        var next = 0
+        for (snippet in snippets) {
+            if (snippet is SnippetCommand) {
+                val command = plan.commands[next++]
+                val file = File(command.second.root, command.second.file.path)
+                for (markdown in handled.getValue(file).await().getValue(command)) {
+                    channel.send(markdown)
+                }
+            } else {
+                channel.send(snippet as SnippetMarkdown)
+            }
+        }
+    }
+}
+
+/*
+    A stage of the pipeline sends its results into a bounded channel, the next stage is reading them from it.
+    When the stage fails, the channel is closed with the same error - the next stages never see a partial result.
+ */
+private fun <T> CoroutineScope.pipelineStage(block: suspend CoroutineScope.(SendChannel<T>) -> Unit)
+        : ReceiveChannel<T> {
+    val channel = Channel<T>(PIPELINE_CAPACITY)
+    launch {
+        try {
+            block(channel)
+            channel.close()
+        } catch (th: Throwable) {
+            channel.close(th)
+            throw th
+        }
+    }
+    return channel
+}
+
+// If neither the source file nor the command changed since the last run, the result is already on the disk
+private suspend fun applyFileCommands(file: File, commands: List<Pair<String, Location>>)
+        : Map<Pair<String, Location>, List<SnippetMarkdown>> =
+    Tracer.asyncSpan("applyFileCommands", "task", { mapOf("file" to file, "commands" to commands.size) }) {
+        applyFileCommandsTraced(file, commands)
+    }
+
+private suspend fun applyFileCommandsTraced(file: File, commands: List<Pair<String, Location>>)
+        : Map<Pair<String, Location>, List<SnippetMarkdown>> {
+    val result = mutableMapOf<Pair<String, Location>, List<SnippetMarkdown>>()
+    val missing = mutableListOf<Pair<String, Location>>()
+    for (command in commands) {
+        val cached = includeCache.get(includeKey(file, command))
+        if (cached != null) {
+            result[command] = cached.map { SnippetMarkdown(it) }
         } else {
-            result.add(snippet as SnippetMarkdown)
+            missing.add(command)
         }
     }
+    if (missing.isEmpty()) {
+        return result
+    }
+    // The rest is cut out of the same parsed file, the parser is asked for it only once
+    val slices = mutableListOf<IncludeSlice>()
+    kotlinParserCache.useParser(file) { declarations ->
+        for ((cmdStr, location) in missing) {
+            slices.add(Tracer.span("applyCommand", "task", { mapOf("command" to "$cmdStr $location") }) {
+                applyCommand(declarations, cmdStr, location)
+            })
+        }
+    }
+    for ((command, slice) in missing.zip(slices)) {
+        val markdown = mutableListOf<SnippetMarkdown>()
+        // At this point we can also create a convenient link, pointing to the Github repo.
+        markdown.add(createHeaderLink(command.second, slice.line))
+        markdown.addAll(extractStatements(command.second, slice.tokens))
+        // The key is taken again: the hash is now the one of the bytes which were parsed
+        includeCache.put(includeKey(file, command), markdown.map { it.markdown })
+        result[command] = markdown
+    }
     return result
 }
 
+private fun includeKey(file: File, command: Pair<String, Location>): String {
+    val (mode, location) = command
+    return "$INCLUDE_CACHE_VERSION:$extractionMode:$mode:${contentHash(file)}:$location"
+}
+
 // To apply the specific command I just switch by its label and call the appropriate method
-private fun applyCommand(command: SnippetCommand, root: File, url: String): List<SnippetMarkdown> {
-    val cmdStr: String
-    val location: Location
+private fun applyCommand(declarations: KotlinDeclarations, cmdStr: String, location: Location) =
+    when (cmdStr) {
+        COMMAND_DECL -> includeDecl(declarations, location)
+        COMMAND_DEF -> includeDef(declarations, location)
+        else -> TODO()
+    }
+
+private fun parseCommand(command: SnippetCommand, root: File, url: String): Pair<String, Location> {
     try {
         val cmdBody = command.command.removePrefix(COMMAND_PREFIX)
         val split =  cmdBody.split(whitespacePattern)
-        cmdStr = split[1]
-        location = parseLocation(root, url, split[2])
+        return split[1] to Metrics.measure(Stage.PARSE_LOCATION) { parseLocation(root, url, split[2]) }
     } catch (th: Throwable) {
         error("Failed to parse command: ${command.command}, msg: ${th.message}")
     }
-    return when (cmdStr) {
-        COMMAND_DECL -> includeDecl(location)
-        COMMAND_DEF -> includeDef(location)
-        else -> TODO()
-    }
 }
 
-private fun includeDecl(location: Location): List<SnippetMarkdown> {
-    lateinit var tokens: List<Token>
-    var line = 0
-    val file = File(location.root, location.file.path)
+private fun includeDecl(declarations: KotlinDeclarations, location: Location): IncludeSlice {
     /*
         To parse and understand Kotlin code, I am using a tool called [Antlr](https://www.antlr.org/).
         Their marketing team outlines the following advantages of the framework:
@@ -160,35 +545,17 @@ private fun includeDecl(location: Location): List<SnippetMarkdown> {
         If the language of your preference is not in the long [list](https://github.com/antlr/grammars-v4/)
         reconsider its advantages.
      */
-    kotlinParserCache.useParser(file) { parser, stream ->
-        val declaration = locateKotlin(parser, location)
-        line = declaration.start.line
-        val firstToken = findFirstToken(stream, declaration)
-        val lastToken = findLastToken(stream, declaration)
-        tokens = stream.get(firstToken, lastToken)
-    }
-    val result = mutableListOf<SnippetMarkdown>()
-    // At this point we can also create a convenient link, pointing to the Github repo.
-    result.add(createHeaderLink(location, line))
-    result.addAll(extractStatements(tokens))
-    return result
+    val declaration = locateKotlin(declarations, location)
+    val firstToken = findFirstToken(declarations.tokens, declaration)
+    val lastToken = findLastToken(declarations.tokens, declaration)
+    return IncludeSlice(declaration.line, declarations.tokens.subList(firstToken, lastToken + 1))
 }
 
-private fun includeDef(location: Location): List<SnippetMarkdown> {
-    lateinit var tokens: List<Token>
-    var line = 0
-    val file = File(location.root, location.file.path)
-    kotlinParserCache.useParser(file) { parser, stream ->
-        val definition = locateKotlin(parser, location)
-        line = definition.start.line
-        val firstToken = findFirstToken(stream, definition)
-        val lastToken = definition.stop.tokenIndex
-        tokens = stream.get(firstToken, lastToken)
-    }
-    val result = mutableListOf<SnippetMarkdown>()
-    result.add(createHeaderLink(location, line))
-    result.addAll(extractStatements(tokens))
-    return result
+private fun includeDef(declarations: KotlinDeclarations, location: Location): IncludeSlice {
+    val definition = locateKotlin(declarations, location)
+    val firstToken = findFirstToken(declarations.tokens, definition)
+    val lastToken = definition.stop
+    return IncludeSlice(definition.line, declarations.tokens.subList(firstToken, lastToken + 1))
 }
 
 private fun createHeaderLink(location: Location, line: Int): SnippetMarkdown {
@@ -202,91 +569,135 @@ private typealias ClassContext = KotlinParser.ClassDeclarationContext
 private typealias FunctionContext = KotlinParser.FunctionDeclarationContext
 private typealias PropertyContext = KotlinParser.PropertyDeclarationContext
 
-private fun locateKotlin(parser: KotlinParser, location: Location): ParserRuleContext {
-    val declarations = mutableListOf<ParserRuleContext>()
+/*
+    Two-stage parsing: SLL prediction is a lot cheaper, but it can fail on the input which is perfectly valid for LL.
+    Only if it does, the file is rewound and parsed again with the full LL prediction and the usual error reporting.
+ */
+internal fun parseKotlin(parser: KotlinParser): KotlinDeclarations {
+    if (predictionStrategy == PredictionStrategy.LL) {
+        return indexKotlin(parser)
+    }
+    parser.interpreter.predictionMode = PredictionMode.SLL
+    parser.errorHandler = BailErrorStrategy()
+    parser.removeErrorListeners()
+    try {
+        val result = indexKotlin(parser)
+        sllParses.incrementAndGet()
+        return result
+    } catch (e: ParseCancellationException) {
+        llFallbacks.incrementAndGet()
+        parser.reset()
+        parser.interpreter.predictionMode = PredictionMode.LL
+        parser.errorHandler = DefaultErrorStrategy()
+        parser.addErrorListener(ConsoleErrorListener.INSTANCE)
+        return indexKotlin(parser)
+    }
+}
+
+/*
+    The file is walked only once: every class, function and property is stored in the index by its identifier.
+    When an identifier is declared more than once, the first one found by the visitor wins.
+ */
+private fun indexKotlin(parser: KotlinParser): KotlinDeclarations {
+    val index = mutableMapOf<String, Declaration>()
+    fun add(identifier: String, kind: DeclarationKind, ctx: ParserRuleContext, body: ParserRuleContext?) {
+        if (!index.containsKey(identifier)) {
+            index[identifier] = Declaration(kind, ctx.start.tokenIndex, ctx.stop.tokenIndex,
+                body?.start?.tokenIndex, ctx.start.line)
+        }
+    }
     val visitor = object : KotlinParserBaseVisitor<Unit>() {
         override fun visitClassDeclaration(ctx: ClassContext?) {
             super.visitClassDeclaration(ctx)
-            if (ctx!!.simpleIdentifier().text == location.identifier) {
-                declarations.add(ctx)
-            }
+            add(ctx!!.simpleIdentifier().text, DeclarationKind.CLASS, ctx, ctx.classBody())
         }
 
         override fun visitFunctionDeclaration(ctx: FunctionContext?) {
             super.visitFunctionDeclaration(ctx)
-            if (ctx!!.identifier().text == location.identifier) {
-                declarations.add(ctx)
-            }
+            add(ctx!!.identifier().text, DeclarationKind.FUNCTION, ctx, ctx.functionBody())
         }
 
         override fun visitPropertyDeclaration(ctx: PropertyContext?) {
             super.visitPropertyDeclaration(ctx)
             val variableDeclaration = ctx!!.variableDeclaration() ?: return
-            if (variableDeclaration.simpleIdentifier().text == location.identifier) {
-                declarations.add(ctx)
-            }
+            add(variableDeclaration.simpleIdentifier().text, DeclarationKind.PROPERTY, ctx, null)
         }
     }
     visitor.visitKotlinFile(parser.kotlinFile())
-    check(declarations.size != 0) { "Location not found: $location" }
-    return declarations.first()
+    val stream = parser.tokenStream as CommonTokenStream
+    stream.fill()
+    return KotlinDeclarations(Collections.unmodifiableList(stream.tokens), Collections.unmodifiableMap(index))
 }
 
-private fun findFirstToken(tokenStream: CommonTokenStream, context: ParserRuleContext): Int {
-    val prevDecl = findPrevDeclaration(tokenStream, context)
+internal fun locateKotlin(declarations: KotlinDeclarations, location: Location) = Metrics.measure(Stage.LOCATE_KOTLIN) {
+    recordEvent(LocateKotlinEvent(), {
+        file = location.file.path
+        identifier = location.identifier
+        tokens = it.stop - it.start + 1
+    }) {
+        checkNotNull(declarations.index[location.identifier]) { "Location not found: $location" }
+    }
+}
+
+internal fun findFirstToken(tokens: List<Token>, declaration: Declaration): Int {
+    val prevDecl = findPrevDeclaration(tokens, declaration)
     return if (prevDecl != null) {
         prevDecl.tokenIndex + 1
     } else {
-        context.start.tokenIndex
+        declaration.start
     }
 }
 
-private fun findLastToken(tokenStream: CommonTokenStream, decl: ParserRuleContext): Int {
-    return when (decl) {
-        is ClassContext -> {
-            if (decl.classBody() != null) {
-                decl.classBody().start.tokenIndex - 1
+internal fun findLastToken(tokens: List<Token>, decl: Declaration): Int {
+    return when (decl.kind) {
+        DeclarationKind.CLASS -> {
+            if (decl.bodyStart != null) {
+                decl.bodyStart - 1
             } else {
-                decl.stop.tokenIndex // class have no body
+                decl.stop // class have no body
             }
         }
-        is FunctionContext -> {
-            if (decl.functionBody() != null) {
-                decl.functionBody().start.tokenIndex - 1
+        DeclarationKind.FUNCTION -> {
+            if (decl.bodyStart != null) {
+                decl.bodyStart - 1
             } else {
-                decl.stop.tokenIndex // function have no body
+                decl.stop // function have no body
             }
         }
-        is PropertyContext -> {
-            if (decl.text.contains("object")) {
-                findBodyStart(tokenStream, decl).tokenIndex - 2 // for objects before body begins
+        DeclarationKind.PROPERTY -> {
+            if (declarationText(tokens, decl).contains("object")) {
+                findBodyStart(tokens, decl).tokenIndex - 2 // for objects before body begins
             } else {
-                decl.stop.tokenIndex // full declaration
+                decl.stop // full declaration
             }
         }
-        else -> throw UnsupportedOperationException("Unknown type of member!")
     }
 }
 
+// Same as the text of the parse tree: all of the tokens from the default channel
+private fun declarationText(tokens: List<Token>, decl: Declaration) = tokens.subList(decl.start, decl.stop + 1)
+    .filter { it.channel == Token.DEFAULT_CHANNEL }
+    .joinToString(separator = "") { it.text }
+
 // todo: sloppy and innacurate
-private fun findBodyStart(tokenStream: CommonTokenStream, context: ParserRuleContext): Token {
-    val (from, to) = context.start.tokenIndex to context.stop.tokenIndex
+private fun findBodyStart(tokens: List<Token>, decl: Declaration): Token {
+    val (from, to) = decl.start to decl.stop
     var current = from + 1
     while (current < to) {
-        val token = tokenStream.get(current)
+        val token = tokens[current]
         if (token.text == "{") {
             return token
         }
         current++
     }
-    throw IllegalStateException("Body of this object is not found! ${context.text}")
+    throw IllegalStateException("Body of this object is not found! ${declarationText(tokens, decl)}")
 }
 
 // todo: sloppy and innacurate
-private fun findPrevDeclaration(tokenStream: CommonTokenStream, member: ParserRuleContext): Token? {
-    var current = member.start.tokenIndex - 1
+private fun findPrevDeclaration(tokens: List<Token>, member: Declaration): Token? {
+    var current = member.start - 1
     while(current >= 0) {
-        val token = tokenStream.get(current)
+        val token = tokens[current]
         // not hidden, not blank, not new line
         if (token.channel != 1 && !token.text.isBlank()) {
             return token
@@ -296,46 +707,93 @@ private fun findPrevDeclaration(tokenStream: CommonTokenStream, member: ParserRu
     return null
 }
 
-private fun extractStatements(tokens: List<Token>): List<SnippetMarkdown> {
-    val result = mutableListOf<SnippetMarkdown>()
-    val statementsText = tokens.joinToString(separator = "") { it.text }
-    lateinit var statements: List<ParserRuleContext>
-    statementsParserCache.useParser(statementsText) { parser, _ ->
-        statements = locateStatements(parser)
+internal suspend fun extractStatements(location: Location, tokens: List<Token>): List<SnippetMarkdown> =
+    Metrics.measureSuspending(Stage.EXTRACT_STATEMENTS, { it.sumBy { s -> s.markdown.length }.toLong() }) {
+        // Waiting for the Statements parser is not a part of the extraction - the event only covers the rest
+        val parsed = when (extractionMode) {
+            ExtractionMode.TOKENS -> null
+            ExtractionMode.GRAMMAR -> splitWithGrammar(tokens)
+        }
+        recordEvent(ExtractStatementsEvent(), {
+            file = location.file.path
+            identifier = location.identifier
+            this.tokens = tokens.size
+            outputBytes = it.sumBy { s -> s.markdown.length }.toLong()
+        }) {
+            statementsMarkdown(parsed ?: splitTokens(tokens))
+        }
     }
+
+// Comments become the text of the article, the code between them goes into the fenced blocks
+private fun statementsMarkdown(statements: List<Statement>): List<SnippetMarkdown> {
+    val result = mutableListOf<SnippetMarkdown>()
     for (statement in statements) {
         if (statement.text.isBlank() || statement.text.contains("todo:")) {
             continue
         }
-        when (statement) {
-            is StatementsParser.DelimitedCommentContext ->
+        when (statement.kind) {
+            StatementKind.DELIMITED_COMMENT ->
                 result.add(SnippetMarkdown(statement.text.removePrefix("/*").removeSuffix("*/").trim()))
-            is StatementsParser.LineCommentContext ->
+            StatementKind.LINE_COMMENT ->
                 result.add(SnippetMarkdown(statement.text.removePrefix("//").trim()))
-            is StatementsParser.CodeContext -> {
+            StatementKind.CODE -> {
                 var code = statement.text
                 while (code[0] == '\n' || code[0] == '\r') code = code.removeRange(0..1)
                 result.add(SnippetMarkdown(CODE_TEMPLATE.format(code.trimEnd())))
             }
-            else -> TODO()
         }
     }
     return result
 }
 
-private fun locateStatements(parser: StatementsParser): List<ParserRuleContext> {
-    val result = mutableListOf<ParserRuleContext>()
+// Kotlin lexer already knows where the comments are: everything in between them is glued into the code
+private fun splitTokens(tokens: List<Token>): List<Statement> {
+    val result = mutableListOf<Statement>()
+    val code = StringBuilder()
+    fun flushCode() {
+        if (code.isNotEmpty()) {
+            result.add(Statement(StatementKind.CODE, code.toString()))
+            code.setLength(0)
+        }
+    }
+    for (token in tokens) {
+        when (token.type) {
+            KotlinLexer.DelimitedComment, KotlinLexer.LineComment,
+            KotlinLexer.Inside_Comment, KotlinLexer.StrExpr_Comment -> {
+                flushCode()
+                val kind = if (token.text.startsWith("//")) StatementKind.LINE_COMMENT else StatementKind.DELIMITED_COMMENT
+                result.add(Statement(kind, token.text))
+            }
+            else -> code.append(token.text)
+        }
+    }
+    flushCode()
+    return result
+}
+
+// The tokens are joined back into the text and split with a separate Statements grammar
+private suspend fun splitWithGrammar(tokens: List<Token>): List<Statement> {
+    val statementsText = tokens.joinToString(separator = "") { it.text }
+    lateinit var statements: List<Statement>
+    statementsParserCache.useParser(statementsText) { parsed ->
+        statements = parsed
+    }
+    return statements
+}
+
+private fun locateStatements(parser: StatementsParser): List<Statement> {
+    val result = mutableListOf<Statement>()
     object : StatementsBaseVisitor<Unit>() {
         override fun visitLineComment(ctx: StatementsParser.LineCommentContext?) {
-            result.add(ctx!!)
+            result.add(Statement(StatementKind.LINE_COMMENT, ctx!!.text))
         }
 
         override fun visitDelimitedComment(ctx: StatementsParser.DelimitedCommentContext?) {
-            result.add(ctx!!)
+            result.add(Statement(StatementKind.DELIMITED_COMMENT, ctx!!.text))
         }
 
         override fun visitCode(ctx: StatementsParser.CodeContext?) {
-            result.add(ctx!!)
+            result.add(Statement(StatementKind.CODE, ctx!!.text))
         }
     }.visitStatements(parser.statements())
     return result
@@ -352,63 +810,405 @@ private fun parseLocation(root: File, url: String, location: String): Location {
     return Location(root, file, identifier, url)
 }
 
-private fun renderHtml(markdown: SnippetMarkdown) =
+internal fun renderHtml(markdown: SnippetMarkdown) =
     SnippetHtml(flexmarkRenderer.render(flexmarkParser.parse(markdown.markdown)))
 
-private fun extractArguments(scenario: File): ScenarioArguments {
-    val lines = ArrayList(scenario.readLines())
-    val root = File(lines.removeAt(0))
-    check(root.exists()) { "Root doesn't exists: $root" }
-    val url = lines.removeAt(0)
-    while (lines[0].isBlank()) lines.removeAt(0)
-    return ScenarioArguments(root, url, lines)
+// Html is a pure function of markdown and the options - the same snippet is never rendered twice
+private fun cachedHtml(markdown: SnippetMarkdown): SnippetHtml {
+    val key = "$HTML_CACHE_VERSION:$flexmarkFingerprint:${sha256(markdown.markdown.toByteArray())}"
+    htmlMemo.get(key)?.let {
+        htmlFromMemory.incrementAndGet()
+        return it
+    }
+    val cached = htmlCache.get(key)
+    val html = if (cached != null) {
+        htmlFromDisk.incrementAndGet()
+        SnippetHtml(cached.single())
+    } else {
+        htmlRendered.incrementAndGet()
+        Metrics.measure(Stage.RENDER_HTML, { it.html.length.toLong() }) {
+            recordEvent(RenderHtmlEvent(), {
+                inputBytes = markdown.markdown.length.toLong()
+                outputBytes = it.html.length.toLong()
+            }) {
+                renderHtml(markdown)
+            }
+        }
+            .also { htmlCache.put(key, listOf(it.html)) }
+    }
+    htmlMemo.put(key, html)
+    return html
+}
+
+// Options are described by their names and values; extensions and other objects - by their classes
+private fun flexmarkFingerprint(options: DataHolder): String {
+    fun describe(value: Any?): String = when (value) {
+        null, is String, is Number, is Boolean, is Enum<*> -> value.toString()
+        is Collection<*> -> value.joinToString(prefix = "[", postfix = "]") { describe(it) }
+        else -> value.javaClass.name
+    }
+    val described = options.all.entries.map { (key, value) -> "${key.name}=${describe(value)}" }.sorted()
+    return sha256(described.joinToString(separator = "\n").toByteArray())
+}
+
+// Snippets are rendered in parallel, the bounded channel of the pending ones keeps them in order
+private fun CoroutineScope.renderSnippets(snippets: ReceiveChannel<SnippetMarkdown>): ReceiveChannel<SnippetHtml> {
+    val pending = pipelineStage<Deferred<SnippetHtml>> { channel ->
+        for (snippet in snippets) {
+            channel.send(async(Dispatchers.Default) { cachedHtml(snippet) })
+        }
+    }
+    return pipelineStage { channel ->
+        for (deferred in pending) {
+            channel.send(deferred.await())
+        }
+    }
+}
+
+// The lines are read one by one - each of them is handed over as soon as the arguments are known
+private fun extractArguments(scenario: File,
+                             onLine: (root: File, url: String, line: String) -> Unit = { _, _, _ -> }) =
+    Metrics.measure(Stage.EXTRACT_ARGUMENTS, { scenario.length() }) {
+        val bytes = readHashed(scenario)
+        bytes.inputStream().bufferedReader().useLines { sequence ->
+            val iterator = sequence.iterator()
+            val root = File(iterator.next())
+            check(root.exists()) { "Root doesn't exists: $root" }
+            val url = iterator.next()
+            val lines = ArrayList<String>()
+            for (line in iterator) {
+                if (lines.isEmpty() && line.isBlank()) {
+                    continue
+                }
+                lines.add(line)
+                onLine.invoke(root, url, line)
+            }
+            ScenarioArguments(root, url, lines, sha256(bytes))
+        }
+    }
+
+// Commands are recognized and the rest of the lines are grouped into the markdown blocks
+private fun identifyBlocks(lines: List<String>) =
+    Metrics.measure(Stage.IDENTIFY_COMMANDS) { groupBlocks(identifyCommands(lines)) }
+
+/*
+    The sources are parsed in the background as soon as the include is recognized in the scenario:
+    by the time the commands are applied, the parsed files are usually waiting in the cache.
+    Files which are not going to be parsed anyway - when all of their includes are cached - are skipped.
+    The parsed command is kept for the planning, the broken one is left for it to report.
+ */
+private fun CoroutineScope.prefetchSource(root: File, url: String, line: String,
+                                          parsed: MutableMap<String, Pair<String, Location>>,
+                                          prefetched: MutableSet<File>) {
+    if (!line.startsWith(COMMAND_PREFIX) || parsed.containsKey(line)) {
+        return
+    }
+    val command = try {
+        parseCommand(SnippetCommand(line), root, url)
+    } catch (e: IllegalStateException) {
+        return
+    }
+    parsed[line] = command
+    val file = File(command.second.root, command.second.file.path)
+    if (!includeCache.contains(includeKey(file, command)) && prefetched.add(file)) {
+        launch(Dispatchers.Default) {
+            Tracer.asyncSpan("prefetchSource", "task", { mapOf("file" to file) }) {
+                kotlinParserCache.useParser(file) {}
+            }
+        }
+    }
 }
 
 // Scenario file starts with a set of arguments: github url, repo path, etc.
-private fun renderScenario(scenario: File, output: File) {
-    val (root, url, lines) = extractArguments(scenario)
+internal suspend fun renderScenario(scenario: File, output: File): Unit = coroutineScope {
+    // The prefetch and the stages belong to this scope: they are over before the scenario is, or cancelled with it
+    val parsed = mutableMapOf<String, Pair<String, Location>>()
+    val prefetched = mutableSetOf<File>()
+    val (root, url, lines, hash) = extractArguments(scenario) { root, url, line ->
+        prefetchSource(root, url, line, parsed, prefetched)
+    }
     // Next, we want to identify and apply the meta commands
-    val withCommands = identifyCommands(lines)
-    val onlyMarkdown = applyCommands(withCommands, root, url)
-    lateinit var htmlSnippets: List<SnippetHtml>
+    val withCommands = identifyBlocks(lines)
+    val plan = planCommands(withCommands, root, url, parsed)
+    /*
+        The rest is a pipeline: the snippets are flowing from one stage to another while the previous ones are busy.
+        The beginning of the article is written to the disk while the includes further down are still being parsed
+     */
+    val onlyMarkdown = applyCommands(withCommands, plan)
     // When we have a final markdown, it can be rendered to html in parallel manner
-    runBlocking {
-        val deferred = mutableListOf<Deferred<SnippetHtml>>()
-        for (snippetMarkdown in onlyMarkdown) {
-            deferred.add(async(Dispatchers.Default) { renderHtml(snippetMarkdown) })
-        }
-        htmlSnippets = deferred.awaitAll()
-    }
+    val htmlSnippets = renderSnippets(onlyMarkdown)
     // And flushed into an output file
     renderFile(output, htmlSnippets)
+    // Last step is to remember what this output was made from - to skip it next time if nothing changed
+    writeManifest(scenario, hash, output, plan.byFile.keys.toList())
+}
+
+/*
+    The manifest starts with the configuration the output was rendered with, followed by "hash path" lines:
+    the scenario itself goes first, every source file touched by the includes follows.
+ */
+private fun writeManifest(scenario: File, scenarioHash: String, output: File, sources: List<File>) {
+    val entries = listOf("$scenarioHash ${scenario.absolutePath}") +
+            sources.map { "${contentHash(it)} ${it.absolutePath}" }
+    manifestCache.put(output.absolutePath, listOf(renderConfig()) + entries)
 }
 
-private fun renderFile(output: File, snippets: List<SnippetHtml>) {
-    if (output.exists()) {
-        output.delete()
+// Everything besides the files the output depends on: a different extraction or html means a different article
+private fun renderConfig() =
+    "config $extractionMode $INCLUDE_CACHE_VERSION $HTML_CACHE_VERSION $flexmarkFingerprint"
+
+// Files this output was made from - or null if it was never rendered successfully
+private fun scenarioDependencies(scenario: File, output: File): List<File>? {
+    val entries = manifestCache.get(output.absolutePath) ?: return null
+    return listOf(scenario.absoluteFile) + entries.drop(1).map { File(it.split(" ", limit = 2)[1]) }
+}
+
+private fun isUpToDate(scenario: File, output: File): Boolean {
+    if (!output.exists()) {
+        return false
     }
-    for (snippet in snippets) {
-        output.appendText(snippet.html)
+    val manifest = manifestCache.get(output.absolutePath) ?: return false
+    if (manifest.firstOrNull() != renderConfig()) {
+        return false
+    }
+    val entries = manifest.drop(1)
+    if (entries.isEmpty() || !entries.first().endsWith(" ${scenario.absolutePath}")) {
+        return false
+    }
+    return entries.all { entry ->
+        val (hash, path) = entry.split(" ", limit = 2)
+        val file = File(path)
+        file.exists() && contentHash(file) == hash
     }
 }
 
-// Main function starts with the measurement
-fun main() {
-    val millis = measureTimeMillis {
-        runBlocking {
-            // We list all the scenarios in the input folder and launch tasks asynchronously:
-            val scenarios = listOf("2_simulation")//inputFolder.list()!!
-            val deferred = mutableListOf<Deferred<Unit>>()
-            for (scenario in scenarios) {
-                val scenarioFile = File(inputFolder, scenario)
-                val outputFile = File(outputFolder, "$scenario.html")
-                check(scenarioFile.exists() && scenarioFile.isFile)
-                deferred.add(async(Dispatchers.Default) { renderScenario(scenarioFile, outputFile) })
+/*
+    The snippets are written into a temporary file next to the output, through a single buffered writer.
+    Only the complete file replaces the old one - nobody sees the article half-written.
+    If the article is the same as before, the old file is not touched at all: the hash is calculated while writing.
+ */
+private suspend fun renderFile(output: File, snippets: ReceiveChannel<SnippetHtml>) =
+    Tracer.asyncSpan("renderFile", "task", { mapOf("file" to output) }) {
+        renderFileTraced(output, snippets)
+    }
+
+private suspend fun renderFileTraced(output: File, snippets: ReceiveChannel<SnippetHtml>) {
+    // Only the writing is measured and recorded - most of the time the writer is waiting for the next snippet
+    var writing = 0L
+    var publishing = 0L
+    val digest = MessageDigest.getInstance("SHA-256")
+    val written = publishAtomically(output) { stream ->
+        DigestOutputStream(stream, digest).bufferedWriter().use { writer ->
+            for (snippet in snippets) {
+                writing += measureNanoTime {
+                    recordEvent(RenderFileEvent(), { file = output.path; outputBytes = snippet.html.length.toLong() }) {
+                        writer.write(snippet.html)
+                    }
+                }
             }
-            // Joining the fork for launched tasks:
-            deferred.awaitAll()
         }
+        publishing = System.nanoTime()
+        recordEvent(RenderFileEvent(), { file = output.path; published = true }) { isChanged(output, digest) }
+    }
+    writing += System.nanoTime() - publishing
+    if (written) {
+        writtenOutputs.incrementAndGet()
+    } else {
+        unchangedOutputs.incrementAndGet()
+    }
+    Metrics.record(Stage.RENDER_FILE, writing, output.length())
+}
+
+// If the article is the same as before, the old file is left as it is
+private fun isChanged(output: File, digest: MessageDigest) = !output.exists() ||
+        !MessageDigest.isEqual(digest.digest(), MessageDigest.getInstance("SHA-256").digest(output.readBytes()))
+
+// After the flags are applied, main function starts with the measurement
+fun main(args: Array<String>) {
+    applyFlags(args)
+    // We list all the scenarios in the input folder:
+    val scenarios = listOf("2_simulation")//inputFolder.list()!!
+    val millis = measureTimeMillis {
+        loadDfaSnapshot()
+        renderScenarios(scenarios, args.contains(FLAG_FORCE))
     }
     // Here I usually notice that my optimizations are futile
     println("Finished in %.2f seconds".format(millis / 1000f))
-}
\ No newline at end of file
+    reportStats()
+    saveDfaSnapshot()
+    // While I am writing, the process stays alive and keeps everything warm
+    if (args.contains(FLAG_WATCH)) {
+        watchScenarios(scenarios) { saveDfaSnapshot() }
+    }
+}
+
+// Flags are changing the way the scenarios are rendered and reported - everything but what is rendered
+private fun applyFlags(args: Array<String>) {
+    if (args.contains(FLAG_STATEMENTS_GRAMMAR)) {
+        extractionMode = ExtractionMode.GRAMMAR
+    }
+    if (args.contains(FLAG_LL_ONLY)) {
+        predictionStrategy = PredictionStrategy.LL
+    }
+    if (args.contains(FLAG_WORKER_DFA)) {
+        dfaMode = DfaMode.PER_WORKER
+    }
+    if (args.contains(FLAG_NO_DFA_SNAPSHOT)) {
+        dfaSnapshot = false
+    }
+    if (args.contains(FLAG_PROFILE_PARSER)) {
+        kotlinParserProfile = ParserProfile(KotlinParser._ATN, KotlinParser.ruleNames)
+    }
+    val json = args.firstOrNull { it.startsWith(FLAG_METRICS_JSON) }
+    if (json != null) {
+        metricsJson = File(json.removePrefix(FLAG_METRICS_JSON))
+    }
+    val trace = args.firstOrNull { it.startsWith(FLAG_TRACE) }
+    if (trace != null) {
+        traceFile = File(trace.removePrefix(FLAG_TRACE))
+        Tracer.enabled = true
+    }
+    val budget = args.firstOrNull { it.startsWith(FLAG_CACHE_BUDGET) }
+    if (budget != null) {
+        val megabytes = budget.removePrefix(FLAG_CACHE_BUDGET).toLong()
+        kotlinParserCache.budget = megabytes * 1024 * 1024
+        statementsParserCache.budget = megabytes * 1024 * 1024
+        htmlMemo.budget = megabytes * 1024 * 1024
+    }
+}
+
+// ANTLR can start with the prediction tables warmed up by the previous runs
+private fun loadDfaSnapshot() {
+    if (!dfaSnapshot) {
+        return
+    }
+    if (DfaSnapshot.load(dfaSnapshotFile, kotlinDfaSets)) {
+        println("Loaded DFA snapshot: ${kotlinDfaSets.sumBy { it.states }} states")
+    }
+    savedDfaStates = kotlinDfaSets.sumBy { it.states }
+}
+
+/*
+    What the workers have learned goes into the shared tables - and into the snapshot with them.
+    The snapshot is only written when the tables have grown since it was loaded or saved.
+ */
+private fun saveDfaSnapshot() {
+    if (dfaMode == DfaMode.PER_WORKER) {
+        kotlinWorkerLexerDfa.merge()
+        kotlinWorkerParserDfa.merge()
+    }
+    val states = kotlinDfaSets.sumBy { it.states }
+    if (!dfaSnapshot || states <= savedDfaStates) {
+        return
+    }
+    try {
+        DfaSnapshot.save(dfaSnapshotFile, kotlinDfaSets)
+        println("Saved DFA snapshot: $states states")
+    } catch (e: UnsupportedOperationException) {
+        println("DFA snapshot is not saved: ${e.message}")
+    }
+    savedDfaStates = states
+}
+
+internal fun reportStats() {
+    kotlinParserCache.report("Kotlin")
+    statementsParserCache.report("Statements")
+    if (predictionStrategy == PredictionStrategy.SLL_FIRST) {
+        println("Kotlin parsing: %d files with SLL, %d fell back to LL".format(sllParses.get(), llFallbacks.get()))
+    }
+    println("Html: %d rendered, %d from memory, %d from disk".format(
+        htmlRendered.get(), htmlFromMemory.get(), htmlFromDisk.get()))
+    println("Outputs: %d written, %d unchanged".format(writtenOutputs.get(), unchangedOutputs.get()))
+    // Where the time went, stage by stage
+    Metrics.printTable()
+    metricsJson?.let { Metrics.writeJson(it) }
+    traceFile?.let { Tracer.write(it) }
+    kotlinParserProfile?.print("Kotlin")
+}
+
+// Everything kept in memory between the renders is forgotten - the caches on the disk are left to the caller
+internal fun forgetMemoryCaches() {
+    kotlinParserCache.invalidate { true }
+    statementsParserCache.invalidate { true }
+    htmlMemo.clear()
+    forgetContentHashes()
+}
+
+internal fun renderScenarios(scenarios: List<String>, force: Boolean,
+                             input: File = inputFolder, output: File = outputFolder) {
+    runBlocking {
+        // Tasks for the scenarios are launched asynchronously:
+        val deferred = mutableListOf<Deferred<Unit>>()
+        for (scenario in scenarios) {
+            val scenarioFile = File(input, scenario)
+            val outputFile = File(output, "$scenario.html")
+            check(scenarioFile.exists() && scenarioFile.isFile)
+            // Unless asked otherwise, the scenarios with unchanged inputs are not rendered again
+            if (!force && isUpToDate(scenarioFile, outputFile)) {
+                println("Up to date: $scenario")
+                continue
+            }
+            // Reading the scenario and writing the output are blocking - that is for the IO threads, not the parsing ones
+            deferred.add(async(Dispatchers.IO + Metrics.scenario(scenario)) {
+                Metrics.measureSuspending(Stage.RENDER_SCENARIO) { renderScenario(scenarioFile, outputFile) }
+            })
+        }
+        // Joining the fork for launched tasks:
+        deferred.awaitAll()
+    }
+}
+
+/*
+    Watch mode: the scenarios folder and the roots of all scenarios are observed for changes.
+    Only the changed files are dropped from the caches and only the scenarios depending on them are rendered.
+ */
+private fun watchScenarios(scenarios: List<String>, afterRender: () -> Unit) {
+    FileWatcher(listOf(outputFolder, cacheFolder)).use { watcher ->
+        watcher.register(inputFolder)
+        // Roots are walked only once - and again only when the scenario is pointing somewhere else
+        val roots = mutableMapOf<String, File>()
+        fun registerRoot(scenario: String) {
+            val root = File(File(inputFolder, scenario).useLines { it.first() }).absoluteFile
+            if (roots.put(scenario, root) != root) {
+                watcher.register(root)
+            }
+        }
+        scenarios.forEach { registerRoot(it) }
+        // The reports are written after every render - they are not the inputs of anything
+        val reports = listOfNotNull(metricsJson, traceFile).map { it.absoluteFile }
+        println("Watching for changes in ${inputFolder.absolutePath}")
+        while (true) {
+            val changed = watcher.awaitChanges().map { it.absoluteFile }.toSet() - reports
+            for (file in changed) {
+                forgetContentHash(file)
+                kotlinParserCache.invalidate { it.absoluteFile == file }
+            }
+            val affected = scenarios.filter { scenario ->
+                val scenarioFile = File(inputFolder, scenario).absoluteFile
+                val dependencies = scenarioDependencies(scenarioFile, File(outputFolder, "$scenario.html"))
+                if (dependencies != null) {
+                    dependencies.any { it in changed }
+                } else {
+                    // Never rendered successfully: only the scenario itself or the sources it can include might fix it
+                    val root = roots.getValue(scenario)
+                    changed.any { it == scenarioFile || it.extension == "kt" && it.startsWith(root) }
+                }
+            }
+            if (affected.isEmpty()) {
+                continue
+            }
+            val millis = measureTimeMillis {
+                try {
+                    renderScenarios(affected, force = true)
+                    // The scenario might be pointing to a different root now
+                    affected.forEach { registerRoot(it) }
+                } catch (th: Throwable) {
+                    println("Failed to render: ${th.message}")
+                }
+            }
+            println("Rendered ${affected.joinToString()} in %.2f seconds".format(millis / 1000f))
+            reportStats()
+            afterRender.invoke()
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.gzozulin
+
+import kotlinx.coroutines.asContextElement
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.coroutines.CoroutineContext
+
+internal const val NANOS_IN_MILLI = 1_000_000.0
+
+// Each power of two is split into 2^SUB_BUCKET_BITS buckets: percentiles are off by 1/8 of the value at most
+private const val SUB_BUCKET_BITS = 3
+private const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+// Anything longer than 2^44 ns - almost five hours - goes into the last bucket
+private const val HIGHEST_BIT = 44
+internal const val BUCKETS = (HIGHEST_BIT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS
+
+internal enum class Stage(val label: String) {
+    EXTRACT_ARGUMENTS("extractArguments"),
+    IDENTIFY_COMMANDS("identifyCommands"),
+    PARSE_LOCATION("parseLocation"),
+    PARSE_KOTLIN("parseKotlin"),
+    LOCATE_KOTLIN("locateKotlin"),
+    EXTRACT_STATEMENTS("extractStatements"),
+    RENDER_HTML("renderHtml"),
+    RENDER_FILE("renderFile"),
+    RENDER_SCENARIO("renderScenario")
+}
+
+// Small values have a bucket each, the rest are bucketed by the highest bit and the few bits right after it
+internal fun bucketOf(value: Long): Int {
+    val clamped = minOf(maxOf(value, 0L), (1L shl HIGHEST_BIT) - 1)
+    if (clamped < SUB_BUCKETS) {
+        return clamped.toInt()
+    }
+    val shift = 63 - java.lang.Long.numberOfLeadingZeros(clamped) - SUB_BUCKET_BITS
+    return ((shift + 1) shl SUB_BUCKET_BITS) + (clamped ushr shift).toInt() - SUB_BUCKETS
+}
+
+internal fun bucketTop(bucket: Int): Long {
+    if (bucket < SUB_BUCKETS) {
+        return bucket.toLong()
+    }
+    val shift = (bucket shr SUB_BUCKET_BITS) - 1
+    val sub = (bucket and (SUB_BUCKETS - 1)) + SUB_BUCKETS
+    return ((sub + 1L) shl shift) - 1
+}
+
+// Histogram of one stage: the memory is the same after ten measurements and after ten millions of them
+private class Samples {
+    private val buckets = IntArray(BUCKETS)
+    private var count = 0L
+    private var sum = 0L
+    private var max = 0L
+    private var bytes = 0L
+
+    @Synchronized
+    fun add(duration: Long, size: Long) {
+        buckets[bucketOf(duration)]++
+        count++
+        sum += duration
+        max = maxOf(max, duration)
+        bytes += size
+    }
+
+    @Synchronized
+    fun addAll(other: Samples) {
+        synchronized(other) {
+            for (bucket in buckets.indices) {
+                buckets[bucket] += other.buckets[bucket]
+            }
+            count += other.count
+            sum += other.sum
+            max = maxOf(max, other.max)
+            bytes += other.bytes
+        }
+    }
+
+    // The top of the bucket the percentile falls into - but never more than the longest measurement
+    private fun percentile(p: Double): Long {
+        val rank = maxOf(1L, Math.ceil(p * count).toLong())
+        var seen = 0L
+        for (bucket in buckets.indices) {
+            seen += buckets[bucket]
+            if (seen >= rank) {
+                return minOf(bucketTop(bucket), max)
+            }
+        }
+        return max
+    }
+
+    @Synchronized
+    fun isEmpty() = count == 0L
+
+    @Synchronized
+    fun summary() = Summary(count, percentile(0.5) / NANOS_IN_MILLI, percentile(0.95) / NANOS_IN_MILLI,
+        max / NANOS_IN_MILLI, sum / NANOS_IN_MILLI, bytes)
+}
+
+private class Summary(val count: Long, val p50: Double, val p95: Double, val max: Double, val total: Double,
+                      val bytes: Long)
+
+/*
+    Latency, count and bytes of every stage of the rendering - for each scenario and for the whole run.
+    The scenario is known from the coroutine context: the name travels with the coroutine from one thread to another.
+ */
+internal object Metrics {
+    private val scenario = ThreadLocal<String?>()
+    private val stages = Stage.values()
+    // Measurements outside of any scenario, and the ones of each scenario - indexed by the stage
+    private val unscoped = Array(stages.size) { Samples() }
+    private val scoped = ConcurrentHashMap<String, Array<Samples>>()
+
+    fun scenario(name: String): CoroutineContext = scenario.asContextElement(name)
+
+    fun current(): String? = scenario.get()
+
+    inline fun <T> measure(stage: Stage, size: (T) -> Long = { 0L }, block: () -> T): T {
+        val start = System.nanoTime()
+        val result = Tracer.span(stage.label, "stage") { block() }
+        record(stage, System.nanoTime() - start, size(result))
+        return result
+    }
+
+    // Same, for the blocks suspending in the middle - they can resume on another thread
+    inline fun <T> measureSuspending(stage: Stage, size: (T) -> Long = { 0L }, block: () -> T): T {
+        val start = System.nanoTime()
+        val result = Tracer.asyncSpan(stage.label, "stage") { block() }
+        record(stage, System.nanoTime() - start, size(result))
+        return result
+    }
+
+    fun record(stage: Stage, nanos: Long, size: Long) {
+        val name = scenario.get()
+        val samples = if (name == null) unscoped else scoped.getOrPut(name) { Array(stages.size) { Samples() } }
+        samples[stage.ordinal].add(nanos, size)
+    }
+
+    private fun summaries(samples: Array<Samples>): Map<Stage, Summary> =
+        stages.filter { !samples[it.ordinal].isEmpty() }.associate { it to samples[it.ordinal].summary() }
+
+    private fun aggregate(): Map<Stage, Summary> {
+        val merged = Array(stages.size) { Samples() }
+        for (samples in scoped.values + listOf(unscoped)) {
+            for (stage in stages) {
+                merged[stage.ordinal].addAll(samples[stage.ordinal])
+            }
+        }
+        return summaries(merged)
+    }
+
+    private fun byScenario(): Map<String, Map<Stage, Summary>> = scoped.toSortedMap().mapValues { summaries(it.value) }
+
+    fun printTable() {
+        println("%-20s %8s %10s %10s %10s %12s %10s".format(
+            "Stage", "count", "p50 ms", "p95 ms", "max ms", "total ms", "KB"))
+        for ((stage, summary) in aggregate()) {
+            println("%-20s %8d %10.3f %10.3f %10.3f %12.1f %10.1f".format(stage.label, summary.count,
+                summary.p50, summary.p95, summary.max, summary.total, summary.bytes / 1024.0))
+        }
+    }
+
+    fun writeJson(file: File) {
+        fun stages(summaries: Map<Stage, Summary>) = summaries.entries.joinToString(prefix = "{", postfix = "}") {
+            (stage, summary) -> "\"${stage.label}\": {\"count\": ${summary.count}, " +
+                "\"p50Ms\": ${summary.p50}, \"p95Ms\": ${summary.p95}, \"maxMs\": ${summary.max}, " +
+                "\"totalMs\": ${summary.total}, \"bytes\": ${summary.bytes}}"
+        }
+        val scenarios = byScenario().entries.joinToString(prefix = "{", postfix = "}") {
+            (name, summaries) -> "${jsonString(name)}: ${stages(summaries)}"
+        }
+        file.writeText("{\"aggregate\": ${stages(aggregate())}, \"scenarios\": $scenarios}\n")
+    }
+}
+
+internal fun jsonString(value: String) =
+    "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\""
@@ -0,0 +1,78 @@
+package com.gzozulin
+
+import org.antlr.v4.runtime.atn.ATN
+import org.antlr.v4.runtime.atn.DecisionInfo
+
+private const val TOP_RULES = 15
+private const val TOP_DECISIONS = 25
+
+private class DecisionTotals {
+    var invocations = 0L
+    var nanos = 0L
+    var sllLook = 0L
+    var sllMax = 0L
+    var llFallbacks = 0L
+    var llLook = 0L
+    var llMax = 0L
+    var ambiguities = 0L
+    var contextSensitivities = 0L
+
+    fun add(info: DecisionInfo) {
+        invocations += info.invocations
+        nanos += info.timeInPrediction
+        sllLook += info.SLL_TotalLook
+        sllMax = maxOf(sllMax, info.SLL_MaxLook)
+        llFallbacks += info.LL_Fallback
+        llLook += info.LL_TotalLook
+        llMax = maxOf(llMax, info.LL_MaxLook)
+        ambiguities += info.ambiguities.size
+        contextSensitivities += info.contextSensitivities.size
+    }
+}
+
+/*
+    Totals of ANTLR profiling over all of the parsed files: which decisions are predicted most often,
+    how far they look ahead with SLL and with the full context LL, and where the time in prediction goes.
+    Each decision belongs to a rule of the grammar - that is the one to restructure when the decision is slow.
+ */
+internal class ParserProfile(private val atn: ATN, private val ruleNames: Array<String>) {
+    private val totals = Array(atn.numberOfDecisions) { DecisionTotals() }
+
+    // Should be called once the parse is over - the profiling simulator accumulates over all of its predictions
+    @Synchronized
+    fun add(decisions: Array<DecisionInfo>) {
+        for (info in decisions) {
+            totals[info.decision].add(info)
+        }
+    }
+
+    private fun ruleName(decision: Int) = ruleNames[atn.getDecisionState(decision).ruleIndex]
+
+    @Synchronized
+    fun print(name: String) {
+        println("$name decisions by rule, top $TOP_RULES by time in prediction:")
+        println("%-32s %10s %12s %10s %10s %10s".format(
+            "Rule", "decisions", "invocations", "time ms", "LL falls", "ambiguous"))
+        val byRule = totals.indices.groupBy { ruleName(it) }
+            .mapValues { (_, decisions) -> decisions.map { totals[it] } }
+            .entries.sortedByDescending { (_, rule) -> rule.map { it.nanos }.sum() } }
+        for ((rule, decisions) in byRule.take(TOP_RULES)) {
+            println("%-32s %10d %12d %10.1f %10d %10d".format(rule, decisions.size,
+                decisions.map { it.invocations }.sum(),
+                decisions.map { it.nanos }.sum() / NANOS_IN_MILLI,
+                decisions.map { it.llFallbacks }.sum(),
+                decisions.map { it.ambiguities }.sum()))
+        }
+        println("$name decisions, top $TOP_DECISIONS by time in prediction:")
+        println("%-8s %-32s %12s %10s %8s %8s %10s %8s %8s %10s %10s".format("Decision", "Rule", "invocations",
+            "time ms", "SLL avg", "SLL max", "LL falls", "LL avg", "LL max", "ambiguous", "context"))
+        val byTime = totals.indices.filter { totals[it].invocations > 0 }.sortedByDescending { totals[it].nanos }
+        for (decision in byTime.take(TOP_DECISIONS)) {
+            val total = totals[decision]
+            println("%-8d %-32s %12d %10.1f %8.2f %8d %10d %8.2f %8d %10d %10d".format(decision, ruleName(decision),
+                total.invocations, total.nanos / NANOS_IN_MILLI, total.sllLook.toDouble() / total.invocations,
+                total.sllMax, total.llFallbacks, total.llLook.toDouble() / maxOf(1L, total.llFallbacks),
+                total.llMax, total.ambiguities, total.contextSensitivities))
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.gzozulin
+
+import kotlinx.coroutines.sync.Mutex
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicLong
+
+private const val NANOS_IN_MICRO = 1_000.0
+
+/*
+    Begin and end of every stage and task of the rendering, in the trace event format of Chrome:
+    the file opens in chrome://tracing or in ui.perfetto.dev. Nothing is recorded unless the tracer is enabled.
+    Tasks suspending in the middle can resume on another thread - they are recorded as async spans with the track
+    of their own, the rest are nested on the track of the thread.
+ */
+internal object Tracer {
+    @Volatile
+    var enabled = false
+
+    private val origin = System.nanoTime()
+    private val events = ConcurrentLinkedQueue<String>()
+    private val threads = ConcurrentHashMap<Long, String>()
+    private val ids = AtomicLong()
+
+    // Arguments are only evaluated when the tracer is enabled
+    inline fun <T> span(name: String, category: String, args: () -> Map<String, Any?> = { emptyMap() },
+                        block: () -> T): T {
+        if (!enabled) {
+            return block()
+        }
+        begin(name, category, args(), null)
+        try {
+            return block()
+        } finally {
+            end(name, category, null)
+        }
+    }
+
+    inline fun <T> asyncSpan(name: String, category: String, args: () -> Map<String, Any?> = { emptyMap() },
+                             block: () -> T): T {
+        if (!enabled) {
+            return block()
+        }
+        val id = nextId()
+        begin(name, category, args(), id)
+        try {
+            return block()
+        } finally {
+            end(name, category, id)
+        }
+    }
+
+    fun nextId() = ids.incrementAndGet()
+
+    fun begin(name: String, category: String, args: Map<String, Any?>, id: Long?) {
+        val withScenario = Metrics.current()?.let { args + ("scenario" to it) } ?: args
+        val described = withScenario.entries.joinToString(prefix = "{", postfix = "}") {
+            (key, value) -> "${jsonString(key)}: ${jsonString(value.toString())}"
+        }
+        event(if (id == null) "B" else "b", name, category, id, ", \"args\": $described")
+    }
+
+    fun end(name: String, category: String, id: Long?) {
+        event(if (id == null) "E" else "e", name, category, id, "")
+    }
+
+    private fun event(phase: String, name: String, category: String, id: Long?, rest: String) {
+        val timestamp = (System.nanoTime() - origin) / NANOS_IN_MICRO
+        val thread = Thread.currentThread()
+        threads.putIfAbsent(thread.id, thread.name)
+        val asyncId = if (id == null) "" else ", \"id\": \"0x${id.toString(16)}\""
+        events.add("{\"name\": ${jsonString(name)}, \"cat\": \"$category\", \"ph\": \"$phase\", " +
+                "\"ts\": $timestamp, \"pid\": 1, \"tid\": ${thread.id}$asyncId$rest}")
+    }
+
+    // The written events are taken out of the queue - with --watch every file is a trace of a single round
+    fun write(file: File) {
+        val written = generateSequence { events.poll() }.toList()
+        val names = threads.map { (tid, name) ->
+            "{\"name\": \"thread_name\", \"ph\": \"M\", \"pid\": 1, \"tid\": $tid, " +
+                    "\"args\": {\"name\": ${jsonString(name)}}}"
+        }
+        file.writeText((names + written).joinToString(prefix = "{\"traceEvents\": [\n", separator = ",\n",
+            postfix = "\n], \"displayTimeUnit\": \"ms\"}\n"))
+    }
+}
+
+// Waiting for the lock is a span of its own - but only when somebody else is actually holding it
+internal suspend inline fun <T> Mutex.withTracedLock(subject: Any?, action: () -> T): T {
+    if (!tryLock()) {
+        Tracer.asyncSpan("wait", "wait", { mapOf("file" to subject) }) { lock() }
+    }
+    try {
+        return action()
+    } finally {
+        unlock()
+    }
+}
@@ -0,0 +1,54 @@
+package com.gzozulin
+
+/*
+    Map bounded by the approximate memory its values take: when it is over the budget,
+    the least recently used values are dropped first. The value just put is always kept, and so are the pinned ones.
+    Not synchronized - the owner is expected to hold its own lock.
+ */
+internal class WeightedLru<K, V>(var budget: Long, private val pinned: (value: V) -> Boolean = { false }) {
+    private class Weighted<V>(val value: V, val weight: Long)
+
+    // Access order - the least recently used entry always comes first
+    private val map = LinkedHashMap<K, Weighted<V>>(16, 0.75f, true)
+
+    var weight = 0L
+        private set
+    var evictions = 0L
+        private set
+
+    val size: Int
+        get() = map.size
+
+    operator fun get(key: K): V? = map[key]?.value
+
+    fun put(key: K, value: V, valueWeight: Long) {
+        map.put(key, Weighted(value, valueWeight))?.let { weight -= it.weight }
+        weight += valueWeight
+        val iterator = map.entries.iterator()
+        while (weight > budget && iterator.hasNext()) {
+            val (candidateKey, candidate) = iterator.next()
+            if (candidateKey == key || pinned.invoke(candidate.value)) {
+                continue
+            }
+            iterator.remove()
+            weight -= candidate.weight
+            evictions++
+        }
+    }
+
+    fun removeIf(predicate: (key: K) -> Boolean) {
+        val iterator = map.entries.iterator()
+        while (iterator.hasNext()) {
+            val (key, entry) = iterator.next()
+            if (predicate.invoke(key)) {
+                iterator.remove()
+                weight -= entry.weight
+            }
+        }
+    }
+
+    fun clear() {
+        map.clear()
+        weight = 0L
+    }
+}
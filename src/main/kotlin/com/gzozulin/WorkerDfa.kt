@@ -0,0 +1,104 @@
+package com.gzozulin
+
+import org.antlr.v4.runtime.atn.ATN
+import org.antlr.v4.runtime.atn.ATNSimulator
+import org.antlr.v4.runtime.atn.PredictionContextCache
+import org.antlr.v4.runtime.dfa.DFA
+import org.antlr.v4.runtime.dfa.DFAState
+import java.util.*
+
+// Empty tables for every decision of the ATN - the same way the generated recognizers create them
+internal fun emptyDecisions(atn: ATN) = Array(atn.numberOfDecisions) { DFA(atn.getDecisionState(it), it) }
+
+/*
+    ANTLR synchronizes every state and edge added to the shared DFA, so parallel parsers of a cold grammar
+    spend their time waiting for each other. Here each worker thread has its own copy of the tables instead:
+    it is seeded from the shared ones when the worker starts and merged back when the parsing is over.
+ */
+internal class WorkerDfa(private val shared: DfaSet) {
+    private class Tables(val decisions: Array<DFA>, val contextCache: PredictionContextCache, val generation: Int)
+
+    /*
+        Only the tables seeded since the last merge are kept here. The pool stops the idle workers and starts new ones,
+        so after the merge the copies are dropped: every thread seeds the fresh ones next time it parses.
+     */
+    private val all = Collections.synchronizedList(mutableListOf<Tables>())
+    private val local = ThreadLocal<Tables>()
+    @Volatile private var generation = 0
+
+    private fun tables(): Tables {
+        val current = local.get()
+        if (current != null && current.generation == generation) {
+            return current
+        }
+        val decisions = emptyDecisions(shared.atn)
+        for ((from, into) in shared.decisions.zip(decisions)) {
+            mergeDfa(from, into)
+        }
+        return Tables(decisions, PredictionContextCache(), generation).also {
+            all.add(it)
+            local.set(it)
+        }
+    }
+
+    // Both are only valid on the calling thread, until the parsing is done
+    fun decisions(): Array<DFA> = tables().decisions
+    fun contextCache(): PredictionContextCache = tables().contextCache
+
+    // Should not be called while any of the workers is still parsing
+    fun merge() {
+        synchronized(all) {
+            for (tables in all) {
+                for ((from, into) in tables.decisions.zip(shared.decisions)) {
+                    mergeDfa(from, into)
+                }
+            }
+            all.clear()
+            generation++
+        }
+    }
+}
+
+/*
+    States are equal when their configurations are - that is how ANTLR itself finds them in the map.
+    The missing states are copied without the edges first, then the edges are copied and pointed to the copies.
+ */
+internal fun mergeDfa(from: DFA, into: DFA) {
+    val mapping = IdentityHashMap<DFAState, DFAState>()
+    for (state in from.states.values) {
+        mapping[state] = into.states.getOrPut(state) { copyState(state, into.states.size) }
+    }
+    val s0 = from.s0
+    if (s0 != null) {
+        // Start state of the precedence DFA is never in the map, it only holds the edges
+        mapping[s0] = if (from.isPrecedenceDfa) into.s0 else mapping[s0]
+        if (into.s0 == null) {
+            into.s0 = mapping[s0]
+        }
+    }
+    for ((state, copy) in mapping) {
+        val edges = state.edges ?: continue
+        // Edges of the precedence start state are growing with the highest precedence seen
+        var copyEdges = copy.edges ?: arrayOfNulls(edges.size)
+        if (copyEdges.size < edges.size) {
+            copyEdges = Arrays.copyOf(copyEdges, edges.size)
+        }
+        copy.edges = copyEdges
+        for (symbol in edges.indices) {
+            val target = edges[symbol] ?: continue
+            if (copyEdges[symbol] == null) {
+                copyEdges[symbol] = if (target === ATNSimulator.ERROR) target else mapping.getValue(target)
+            }
+        }
+    }
+}
+
+// Configurations are read-only at this point, so both states can share them
+private fun copyState(state: DFAState, stateNumber: Int) = DFAState(state.configs).apply {
+    this.stateNumber = stateNumber
+    isAcceptState = state.isAcceptState
+    prediction = state.prediction
+    lexerActionExecutor = state.lexerActionExecutor
+    requiresFullContext = state.requiresFullContext
+    predicates = state.predicates
+}
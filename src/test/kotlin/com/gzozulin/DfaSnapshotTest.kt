@@ -0,0 +1,126 @@
+package com.gzozulin
+
+import com.gzozulin.kotlin.KotlinLexer
+import com.gzozulin.kotlin.KotlinParser
+import org.antlr.v4.runtime.CharStreams
+import org.antlr.v4.runtime.CommonTokenStream
+import org.antlr.v4.runtime.atn.LexerATNSimulator
+import org.antlr.v4.runtime.atn.ParserATNSimulator
+import org.antlr.v4.runtime.atn.PredictionContextCache
+import org.antlr.v4.runtime.dfa.DFA
+import org.antlr.v4.runtime.dfa.DFAState
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.File
+
+private const val FIXTURE = """
+package com.example
+
+import java.io.File
+
+// Line comment before the class
+class Repository<T : Any>(private val folder: File) : Iterable<T> {
+    private val items = mutableListOf<T>()
+    val size: Int
+        get() = items.size
+
+    /* Delimited comment */
+    fun add(item: T, vararg more: T): Boolean = items.add(item) && items.addAll(more)
+
+    override fun iterator() = items.iterator()
+
+    companion object {
+        const val NAME = "repository"
+    }
+}
+
+private val listener = object : Runnable {
+    override fun run() {
+        println("Running " + listener.hashCode() + " in " + File(".").absolutePath)
+    }
+}
+
+fun <T> Repository<T>.firstOrFail(predicate: (T) -> Boolean): T {
+    for (item in this) {
+        when {
+            predicate(item) -> return item
+            else -> continue
+        }
+    }
+    throw IllegalStateException("Nothing found")
+}
+"""
+
+// The tables restored from the snapshot should be the same as the ones it was taken from - and predict the same
+class DfaSnapshotTest {
+    private val file = File.createTempFile("kotlin", ".dfa")
+
+    @After
+    fun deleteSnapshot() {
+        file.delete()
+    }
+
+    private fun emptySets() = listOf(
+        DfaSet(KotlinLexer._ATN, KotlinLexer._serializedATN, emptyDecisions(KotlinLexer._ATN), true),
+        DfaSet(KotlinParser._ATN, KotlinParser._serializedATN, emptyDecisions(KotlinParser._ATN), false))
+
+    private fun parse(sets: List<DfaSet>): KotlinDeclarations {
+        val (lexerSet, parserSet) = sets
+        val lexer = KotlinLexer(CharStreams.fromString(FIXTURE))
+        lexer.interpreter = LexerATNSimulator(lexer, lexer.atn, lexerSet.decisions, PredictionContextCache())
+        val parser = KotlinParser(CommonTokenStream(lexer))
+        parser.interpreter = ParserATNSimulator(parser, parser.atn, parserSet.decisions, PredictionContextCache())
+        return parseKotlin(parser)
+    }
+
+    private fun edgeCount(state: DFAState?) = state?.edges?.count { it != null } ?: 0
+
+    private fun assertSameDfa(expected: DFA, actual: DFA) {
+        assertEquals(expected.states.size, actual.states.size)
+        assertEquals(expected.s0 == null, actual.s0 == null)
+        assertEquals(edgeCount(expected.s0), edgeCount(actual.s0))
+        for (state in expected.states.values) {
+            val restored = actual.states[state]
+            assertNotNull("State is missing: $state", restored)
+            assertEquals(state.isAcceptState, restored!!.isAcceptState)
+            assertEquals(state.prediction, restored.prediction)
+            assertEquals(state.requiresFullContext, restored.requiresFullContext)
+            assertEquals(state.lexerActionExecutor, restored.lexerActionExecutor)
+            assertEquals(edgeCount(state), edgeCount(restored))
+            state.edges?.forEachIndexed { symbol, target ->
+                assertEquals(target, restored.edges?.getOrNull(symbol))
+            }
+        }
+    }
+
+    @Test
+    fun snapshotRoundTrip() {
+        val warm = emptySets()
+        val expected = parse(warm)
+        DfaSnapshot.save(file, warm)
+        val loaded = emptySets()
+        assertTrue(DfaSnapshot.load(file, loaded))
+        for ((warmSet, loadedSet) in warm.zip(loaded)) {
+            assertEquals(warmSet.states, loadedSet.states)
+            for ((from, into) in warmSet.decisions.zip(loadedSet.decisions)) {
+                assertSameDfa(from, into)
+            }
+        }
+        val actual = parse(loaded)
+        assertEquals(expected.index, actual.index)
+        assertEquals(expected.tokens.map { it.type to it.text }, actual.tokens.map { it.type to it.text })
+        // Every prediction for the same file is already in the restored tables
+        assertEquals(warm.sumBy { it.states }, loaded.sumBy { it.states })
+    }
+
+    @Test
+    fun snapshotOfOtherGrammarIsRejected() {
+        val warm = emptySets()
+        parse(warm)
+        DfaSnapshot.save(file, warm)
+        val other = emptySets().map { DfaSet(it.atn, it.serializedAtn + "changed", it.decisions, it.isLexer) }
+        assertFalse(DfaSnapshot.load(file, other))
+        assertEquals(0, other.sumBy { it.states })
+    }
+}
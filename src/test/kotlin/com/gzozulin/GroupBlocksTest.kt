@@ -0,0 +1,75 @@
+package com.gzozulin
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+// Lines of prose stay the paragraphs on their own, the multi-line blocks should render the same as if written at once
+class GroupBlocksTest {
+    private fun blocks(markdown: String) = groupBlocks(markdown.lines().map { SnippetMarkdown(it) })
+        .map { (it as SnippetMarkdown).markdown }
+
+    private fun assertSameAsWhole(markdown: String) {
+        val whole = renderHtml(SnippetMarkdown(markdown)).html
+        val separately = blocks(markdown).joinToString(separator = "") { renderHtml(SnippetMarkdown(it)).html }
+        assertEquals(whole, separately)
+    }
+
+    @Test
+    fun proseLinesAreSeparateParagraphs() {
+        assertEquals(listOf("Collision with bounds", "Collision with others"),
+            blocks("Collision with bounds\nCollision with others"))
+    }
+
+    // Only the lists, the fences and the indented code are grouped - the underline is a line of its own
+    @Test
+    fun setextHeadingIsLinePerBlock() {
+        assertEquals(listOf("Collision", "========="), blocks("Collision\n========="))
+    }
+
+    @Test
+    fun blockquoteIsLinePerBlock() {
+        assertEquals(listOf("> Collision with bounds", "> Collision with others"),
+            blocks("> Collision with bounds\n> Collision with others"))
+    }
+
+    @Test
+    fun listItemsStayTogether() {
+        assertSameAsWhole("1. first\n2. second\n3. third\n\nParagraph")
+    }
+
+    @Test
+    fun looseListWithContinuation() {
+        assertSameAsWhole("* first\n\n  continued\n\n* second\n\nParagraph")
+    }
+
+    @Test
+    fun indentedCodeStaysTogether() {
+        assertSameAsWhole("Paragraph\n\n    first\n\n    second\n\nParagraph")
+    }
+
+    @Test
+    fun deeplyIndentedFenceDoesNotClose() {
+        assertSameAsWhole("```\nfirst\n    ```\n\nsecond\n```\n\nParagraph")
+    }
+
+    @Test
+    fun fenceClosedWithThreeSpaces() {
+        assertSameAsWhole("```\ncode\n   ```\n\nParagraph")
+    }
+
+    @Test
+    fun definitionBeforeReference() {
+        assertSameAsWhole("[d]: http://example.com/first\n\nSee [text][d] here.\n\n* and [in a list][d]")
+    }
+
+    @Test
+    fun definitionAfterReference() {
+        assertSameAsWhole("See [text][D] here.\n\n# Heading\n\n[d]: http://example.com/second \"Title\"")
+    }
+
+    @Test
+    fun definitionOnlyAddedWhereReferenced() {
+        assertEquals(listOf("[d]: http://example.com/third", "Nothing [here]", "See [text][d]\n\n[d]: http://example.com/third"),
+            blocks("[d]: http://example.com/third\nNothing [here]\nSee [text][d]"))
+    }
+}
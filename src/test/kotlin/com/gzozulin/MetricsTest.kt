@@ -0,0 +1,41 @@
+package com.gzozulin
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+// Buckets of the histogram should cover every duration, from zero to the longest one, without gaps
+class MetricsTest {
+    @Test
+    fun smallValuesHaveBucketEach() {
+        for (value in 0L until 8L) {
+            assertEquals(value.toInt(), bucketOf(value))
+            assertEquals(value, bucketTop(value.toInt()))
+        }
+    }
+
+    @Test
+    fun negativeValuesGoIntoFirstBucket() {
+        assertEquals(0, bucketOf(-1L))
+    }
+
+    @Test
+    fun bucketsAreContiguous() {
+        for (bucket in 0 until BUCKETS - 1) {
+            assertEquals(bucket, bucketOf(bucketTop(bucket)))
+            assertEquals(bucket + 1, bucketOf(bucketTop(bucket) + 1))
+        }
+    }
+
+    @Test
+    fun longValuesGoIntoLastBucket() {
+        assertEquals((1L shl 44) - 1, bucketTop(BUCKETS - 1))
+        assertEquals(BUCKETS - 1, bucketOf((1L shl 44) - 1))
+        assertEquals(BUCKETS - 1, bucketOf(1L shl 44))
+        assertEquals(BUCKETS - 1, bucketOf(Long.MAX_VALUE))
+    }
+
+    @Test
+    fun longDurationIsRecorded() {
+        Metrics.record(Stage.RENDER_FILE, Long.MAX_VALUE, 0L)
+    }
+}